@@ -1,5 +1,6 @@
 package amazed;
 
+import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 
 import amazed.maze.Amazed;
@@ -12,44 +13,42 @@ public class Main
         String className = MethodHandles.lookup().lookupClass().getName();
         System.out.println("A-mazed: finds and displays paths to goal in a maze.\n"
                            + "\n"
-                           + "usage: java " + className + " MAP [SOLVER] [PERIOD]\n"
+                           + "usage: java " + className + " MAP [SOLVER] [PERIOD] [TRACE]\n"
                            + "\n"
                            + " MAP    filename with map file\n"
-                           + " SOLVER 'sequential' or 'parallel-N' solver, forking after N steps\n"
-                           + " PERIOD time in millisecond between steps (0: don't animate)");
+                           + " SOLVER 'sequential', 'primitive' (sequential over primitive arrays),\n"
+                           + "        'parallel-N' solver, forking after N steps,\n"
+                           + "        'parallel-adaptive' solver, forking when the pool needs work,\n"
+                           + "        'parallel-striped-N' or 'parallel-striped-adaptive' (parallel\n"
+                           + "        with a visited set striped over several arrays),\n"
+                           + "        'junction' (sequential over junctions, with corridors contracted),\n"
+                           + "        'parallel-junction-N' or 'parallel-junction-adaptive' (parallel\n"
+                           + "        over junctions),\n"
+                           + "        'bfs' (parallel breadth-first, shortest path),\n"
+                           + "        'astar' or 'bidirectional' (informed, shortest path),\n"
+                           + "        'scoped' (a thread per branch),\n"
+                           + "        'all' (parallel breadth-first, shortest paths to all goals)\n"
+                           + " PERIOD time in millisecond between steps (0: don't animate)\n"
+                           + " TRACE  filename of a trace file recording the search");
         System.exit(0);
     }
 
-    private final static String SEQUENTIAL = "sequential";
-    private final static String PARALLEL = "parallel";
-
     private static String map;
-    private static boolean sequential = true;
+    private static String solver = Amazed.SEQUENTIAL;
     private static int forkAfter = 0;
     private static int period = 500;
+    private static String trace;
 
     private static void parseArguments(String[] args)
     {
         if (args.length >= 1) {
             map = args[0];
             if (args.length >= 2) {
-                String solver = args[1];
-                if (solver.equals(SEQUENTIAL))
-                    sequential = true;
-                else {
-                    sequential = false;
-                    String[] splitSolver = solver.split("-");
-                    if (splitSolver.length == 2) {
-                        if (splitSolver[0].equals(PARALLEL)) {
-                            try {
-                                forkAfter = Integer.parseInt(splitSolver[1]);
-                            } catch (NumberFormatException e) {
-                                printUsageAndExit();
-                            }
-                        } else
-                            printUsageAndExit();
-                    } else
-                        printUsageAndExit();
+                try {
+                    solver = Amazed.solverName(args[1]);
+                    forkAfter = Amazed.forkAfter(args[1]);
+                } catch (IllegalArgumentException e) {
+                    printUsageAndExit();
                 }
                 if (args.length >= 3) {
                     try {
@@ -57,6 +56,8 @@ public class Main
                     } catch (NumberFormatException e) {
                         printUsageAndExit();
                     }
+                    if (args.length >= 4)
+                        trace = args[3];
                 }
             }
         } else
@@ -67,12 +68,22 @@ public class Main
     throws InterruptedException
     {
         parseArguments(args);
-        Amazed amazed = new Amazed(map, sequential, forkAfter, period);
+        Amazed amazed = new Amazed(map, solver, forkAfter, period);
+        if (trace != null) {
+            try {
+                amazed.record(trace);
+            } catch (IOException e) {
+                System.err.println("Error: cannot create trace file " + trace);
+                System.exit(1);
+            }
+        }
         long start = System.currentTimeMillis();
         amazed.solve();
         long stop = System.currentTimeMillis();
         long elapsed = stop - start;
         System.out.println("Solving time: " + elapsed + " ms");
+        System.out.println("Metrics: " + amazed.getMetrics().toJson());
+        amazed.stopTracing();
         Thread.sleep(1000);
         amazed.showSolution();
     }
@@ -1,20 +1,37 @@
 package amazed.maze;
 
-import java.awt.EventQueue;
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
 
 import amazed.solver.SequentialSolver;
+import amazed.solver.PrimitiveSequentialSolver;
 import amazed.solver.ForkJoinSolver;
+import amazed.solver.ParallelBfsSolver;
+import amazed.solver.AStarSolver;
+import amazed.solver.BidirectionalSolver;
+import amazed.solver.ScopedSolver;
+import amazed.solver.AllGoalsSolver;
+import amazed.solver.Instrumented;
+import amazed.solver.SolverMetrics;
 
 /**
  * <code>Amazed</code> is a simple application class that applies a
  * solver to a maze.
  * <p>
  * This class supports sequential solvers of class
- * <code>SequentialSolver</code> and fork/join solvers of class
- * <code>ForkJoinSolver</code>. It runs both using the common pool of
+ * <code>SequentialSolver</code> and
+ * <code>PrimitiveSequentialSolver</code>, and fork/join solvers of
+ * class <code>ForkJoinSolver</code> and <code>ParallelBfsSolver</code>,
+ * the first two also over the junction graph of the maze, as well as
+ * the informed solvers <code>AStarSolver</code> and
+ * <code>BidirectionalSolver</code>, and <code>ScopedSolver</code>,
+ * which runs a thread per branch. Solver <code>AllGoalsSolver</code>
+ * finds paths to all goals instead of one, and all of them are
+ * displayed. It runs all using the common pool of
  * <code>java.util.concurrent.ForkJoinPool</code>; thus, the solvers
  * must be a subtype of
  * <code>RecursiveTask&lt;List&lt;Integer&gt;&gt;</code>. After creating an
@@ -28,9 +45,67 @@ import amazed.solver.ForkJoinSolver;
 
 public class Amazed
 {
+    /**
+     * Name of the solver of class <code>SequentialSolver</code>.
+     */
+    public static final String SEQUENTIAL = "sequential";
+    /**
+     * Name of the solver of class <code>PrimitiveSequentialSolver</code>.
+     */
+    public static final String PRIMITIVE = "primitive";
+    /**
+     * Name of the solver of class <code>ForkJoinSolver</code>.
+     */
+    public static final String PARALLEL = "parallel";
+    /**
+     * Name of the solver of class <code>ForkJoinSolver</code> whose
+     * visited set is striped over several arrays.
+     */
+    public static final String PARALLEL_STRIPED = "parallel-striped";
+    /**
+     * Name of the solver of class <code>SequentialSolver</code> that
+     * searches the junction graph of the maze.
+     */
+    public static final String JUNCTION = "junction";
+    /**
+     * Name of the solver of class <code>ForkJoinSolver</code> that
+     * searches the junction graph of the maze.
+     */
+    public static final String PARALLEL_JUNCTION = "parallel-junction";
+    /**
+     * Name of the solver of class <code>ParallelBfsSolver</code>.
+     */
+    public static final String BFS = "bfs";
+    /**
+     * Name of the solver of class <code>AStarSolver</code>.
+     */
+    public static final String ASTAR = "astar";
+    /**
+     * Name of the solver of class <code>BidirectionalSolver</code>.
+     */
+    public static final String BIDIRECTIONAL = "bidirectional";
+    /**
+     * Name of the solver of class <code>ScopedSolver</code>.
+     */
+    public static final String SCOPED = "scoped";
+    /**
+     * Name of the solver of class <code>AllGoalsSolver</code>.
+     */
+    public static final String ALL_GOALS = "all";
+
+    // longest wait for tasks that outlive a search before closing traces
+    private static final long STRAGGLER_WAIT_MS = 1000;
+
     private Maze maze;
     private RecursiveTask<List<Integer>> solver;
     private List<Integer> path;
+    // searches for all goals instead of solver, if not null
+    private AllGoalsSolver allGoalsSolver;
+    private Map<Integer, List<Integer>> paths;
+    // replays the search while and after it runs; null if not animated
+    private Playback playback;
+    // whether the search is recorded to a trace file
+    private boolean recording;
 
     /**
      * Creates a maze reading from map file <code>map</code>.
@@ -44,9 +119,10 @@ public class Amazed
      *                         is passed to the instance of the solver as
      *                         described in
      *                         {@link amazed.solver.ForkJoinSolver#ForkJoinSolver(Maze, int)}
-     * @param animationDelay   milliseconds of pause between a step and
-     *                         the next one in the animation of the
-     *                         solution search; if
+     * @param animationDelay   milliseconds between a step and the next
+     *                         one in the animation of the solution
+     *                         search, which is replayed from a trace
+     *                         so that it does not slow the solver down; if
      *                         <code>animationDelay &lt;= 0</code>
      *                         then there is no graphical animation
      *                         and no spurious delays; if
@@ -54,39 +130,250 @@ public class Amazed
      *                         there is no graphical display at all
      */
     public Amazed(String map, boolean sequentialSolver, int forkAfter, int animationDelay)
+    {
+        this(map, sequentialSolver ? SEQUENTIAL : PARALLEL, forkAfter, animationDelay);
+    }
+
+    /**
+     * Creates a maze reading from map file <code>map</code>, to be
+     * searched by the solver named <code>solverName</code>.
+     *
+     * @param map              the name of the map file describing the maze to be searched
+     * @param solverName       one of {@link #SEQUENTIAL}, {@link #PRIMITIVE},
+     *                         {@link #PARALLEL}, {@link #PARALLEL_STRIPED},
+     *                         {@link #JUNCTION}, {@link #PARALLEL_JUNCTION},
+     *                         {@link #BFS}, {@link #ASTAR},
+     *                         {@link #BIDIRECTIONAL}, {@link #SCOPED},
+     *                         or {@link #ALL_GOALS}
+     * @param forkAfter        the number of steps (visited nodes) after
+     *                         which a parallel task is forked, as in
+     *                         {@link #Amazed(String, boolean, int, int)}
+     * @param animationDelay   milliseconds of pause between a step and
+     *                         the next one, as in
+     *                         {@link #Amazed(String, boolean, int, int)}
+     * @throws IllegalArgumentException if <code>solverName</code> is
+     *                                  not the name of a solver
+     */
+    public Amazed(String map, String solverName, int forkAfter, int animationDelay)
     {
         maze = new Maze(map);
-        if (animationDelay >= 0) {
-            EventQueue.invokeLater(new Runnable() {
-                @Override
-                public void run() {
-                    MazeFrame ex = new MazeFrame(maze);
-                    ex.setVisible(true);
-                }
-            });
-        }
+        if (animationDelay >= 0)
+            maze.display();
         maze.setDelay(animationDelay);
-        if (sequentialSolver)
-            solver = new SequentialSolver(maze);
+        if (animationDelay > 0) {
+            maze.setDeferred(true);
+            playback = maze.newPlayback();
+            playback.start();
+        }
+        if (solverName.equals(ALL_GOALS))
+            allGoalsSolver = new AllGoalsSolver(maze);
         else
-            solver = new ForkJoinSolver(maze, forkAfter);
+            solver = newSolver(maze, solverName, forkAfter);
+    }
+
+    /**
+     * Creates the solver named <code>solverName</code> for
+     * <code>maze</code>.
+     *
+     * @param maze         the maze to be searched
+     * @param solverName   the name of a solver that returns one path,
+     *                     as accepted by {@link #Amazed(String, String, int, int)}
+     *                     except {@link #ALL_GOALS}
+     * @param forkAfter    the number of steps (visited nodes) after
+     *                     which a parallel task is forked, as in
+     *                     {@link #Amazed(String, boolean, int, int)}
+     * @return             a new solver of <code>maze</code>
+     * @throws IllegalArgumentException if <code>solverName</code> is
+     *                                  not the name of such a solver
+     */
+    public static RecursiveTask<List<Integer>> newSolver(Maze maze, String solverName, int forkAfter)
+    {
+        switch (solverName) {
+        case SEQUENTIAL:
+            return new SequentialSolver(maze);
+        case PRIMITIVE:
+            return new PrimitiveSequentialSolver(maze);
+        case PARALLEL:
+            return new ForkJoinSolver(maze, forkAfter);
+        case PARALLEL_STRIPED:
+            return new ForkJoinSolver(maze, forkAfter, true);
+        case JUNCTION:
+            return new SequentialSolver(maze, true);
+        case PARALLEL_JUNCTION:
+            return new ForkJoinSolver(maze, forkAfter, false, true);
+        case BFS:
+            return new ParallelBfsSolver(maze);
+        case ASTAR:
+            return new AStarSolver(maze);
+        case BIDIRECTIONAL:
+            return new BidirectionalSolver(maze);
+        case SCOPED:
+            return new ScopedSolver(maze);
+        default:
+            throw new IllegalArgumentException("Unknown solver " + solverName);
+        }
+    }
+
+    /**
+     * Returns the name of the solver selected by a solver argument of
+     * <code>amazed.Main</code>: either the name of a solver, or the
+     * name of a fork/join solver, {@link #PARALLEL},
+     * {@link #PARALLEL_STRIPED} or {@link #PARALLEL_JUNCTION},
+     * followed by <code>-N</code> to fork
+     * after N steps or by <code>-adaptive</code>.
+     *
+     * @param solverArg   a solver argument, such as <code>parallel-9</code>
+     * @return            the name of the solver it selects
+     * @throws IllegalArgumentException if <code>solverArg</code> is
+     *                                  not a solver argument
+     */
+    public static String solverName(String solverArg)
+    {
+        String forking = forkingSolver(solverArg);
+        if (forking != null) {
+            parseForkAfter(solverArg, forking);
+            return forking;
+        }
+        switch (solverArg) {
+        case SEQUENTIAL: case PRIMITIVE: case JUNCTION: case BFS:
+        case ASTAR: case BIDIRECTIONAL: case SCOPED: case ALL_GOALS:
+            return solverArg;
+        default:
+            throw new IllegalArgumentException("Unknown solver " + solverArg);
+        }
+    }
+
+    /**
+     * Returns the number of steps after which the solver selected by a
+     * solver argument forks, as accepted by {@link #solverName}.
+     *
+     * @param solverArg   a solver argument, such as <code>parallel-9</code>
+     * @return            the value of <code>forkAfter</code> it selects;
+     *                    <code>0</code> for a solver that does not fork
+     * @throws IllegalArgumentException if <code>solverArg</code> is
+     *                                  not a solver argument
+     */
+    public static int forkAfter(String solverArg)
+    {
+        String forking = forkingSolver(solverArg);
+        if (forking == null) {
+            solverName(solverArg);
+            return 0;
+        }
+        return parseForkAfter(solverArg, forking);
+    }
+
+    /**
+     * Creates the solver selected by a solver argument, as accepted by
+     * {@link #solverName}, for <code>maze</code>.
+     *
+     * @param maze        the maze to be searched
+     * @param solverArg   a solver argument of a solver that returns
+     *                    one path, that is, other than {@link #ALL_GOALS}
+     * @return            a new solver of <code>maze</code>
+     * @throws IllegalArgumentException if <code>solverArg</code> is
+     *                                  not such a solver argument
+     */
+    public static RecursiveTask<List<Integer>> newSolver(Maze maze, String solverArg)
+    {
+        return newSolver(maze, solverName(solverArg), forkAfter(solverArg));
+    }
+
+    // the fork/join solver whose name `solverArg' begins with, or null
+    private static String forkingSolver(String solverArg)
+    {
+        // PARALLEL last, since the others begin with it
+        for (String name: new String[] { PARALLEL_JUNCTION, PARALLEL_STRIPED, PARALLEL })
+            if (solverArg.startsWith(name + "-"))
+                return name;
+        return null;
+    }
+
+    private static int parseForkAfter(String solverArg, String forking)
+    {
+        String steps = solverArg.substring(forking.length() + 1);
+        if (steps.equals("adaptive"))
+            return ForkJoinSolver.ADAPTIVE;
+        try {
+            int forkAfter = Integer.parseInt(steps);
+            if (forkAfter >= 0)
+                return forkAfter;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Unknown solver " + solverArg);
+    }
+
+    /**
+     * Records the search performed by <code>solve</code> to a trace
+     * file, which can be replayed with <code>amazed.tools.TraceReplay</code>.
+     *
+     * @param traceFile   the name of the trace file to write
+     * @throws IOException   if the file cannot be created
+     */
+    public void record(String traceFile)
+    throws IOException
+    {
+        maze.record(traceFile);
+        recording = true;
+    }
+
+    /**
+     * Closes the trace replayed by the animation and the trace file
+     * being recorded, if any, once the tasks that outlive the search
+     * performed by <code>solve</code> have stopped moving players, or
+     * after waiting <code>STRAGGLER_WAIT_MS</code> for them. It does
+     * nothing if the search is neither animated nor recorded, or if
+     * tracing already stopped. It is called by
+     * <code>showSolution</code>, and may be called before it, after
+     * timing the search.
+     */
+    public void stopTracing()
+    {
+        if (playback == null && !recording)
+            return;
+        if (!ForkJoinPool.commonPool().awaitQuiescence(STRAGGLER_WAIT_MS, TimeUnit.MILLISECONDS))
+            System.err.println("Warning: tasks still running after " + STRAGGLER_WAIT_MS
+                               + " ms; the trace may miss their last moves");
+        if (playback != null)
+            maze.getTrace().close();
+        if (recording) {
+            recording = false;
+            try {
+                maze.stopRecording();
+            } catch (IOException e) {
+                System.err.println("Error: cannot write trace file: " + e.getMessage());
+            }
+        }
     }
 
     /**
      * Runs the solver on the maze, waits for termination, and prints
-     * to screen the outcome of the search.
+     * to screen the outcome of the search. If no goal is in the
+     * connected component of the start node, the solver is not run.
      */
     public void solve()
     {
         ForkJoinPool pool = ForkJoinPool.commonPool();
         System.out.println("Initialized solver");
-        path = pool.invoke(solver);
+        // no search at all if the goals are in other components
+        boolean reachable = maze.isGoalReachable();
+        if (allGoalsSolver != null)
+            paths = pool.invoke(allGoalsSolver);
+        else if (reachable)
+            path = pool.invoke(solver);
         System.out.println("Solver finished");
-        if (path != null && maze.isValidPath(path)) {
+        if (allGoalsSolver != null)
+            reportAllGoals();
+        else if (path != null && maze.isValidPath(path)) {
 
             System.out.println("Goal found :-D");
         }
 
+        else if (!reachable) {
+            System.out.println("No goal reachable from the start :-(");
+        }
+
         else {
             System.out.println("Search completed: no goal found :-(");
         }
@@ -94,18 +381,59 @@ public class Amazed
         pool.shutdown();
     }
 
+    private void reportAllGoals()
+    {
+        int valid = 0;
+        for (List<Integer> goalPath: paths.values())
+            if (maze.isValidPath(goalPath))
+                valid += 1;
+        int goals = paths.size() + allGoalsSolver.getUnreachableGoals().size();
+        System.out.println("Paths to " + valid + " of " + goals + " goals found"
+                           + (valid == paths.size() && valid > 0 ? " :-D" : ""));
+        if (!allGoalsSolver.getUnreachableGoals().isEmpty())
+            System.out.println("Unreachable goals: " + allGoalsSolver.getUnreachableGoals());
+    }
+
+    /**
+     * Returns the metrics of the search performed by
+     * <code>solve</code>.
+     *
+     * @return   the metrics of the solver
+     */
+    public SolverMetrics getMetrics()
+    {
+        if (allGoalsSolver != null)
+            return allGoalsSolver.getMetrics();
+        return ((Instrumented) solver).getMetrics();
+    }
+
     /**
      * Displays the solution by removing all players and marking a
      * path from the start node to a goal on the maze graphical
      * representation. The method only removes the players if no
-     * solution has been found.
+     * solution has been found. It first stops tracing, as
+     * <code>stopTracing</code> does; if the search is animated, it then
+     * waits until the animation has replayed the whole search.
      */
     public void showSolution()
     {
+        stopTracing();
+        if (playback != null) {
+            try {
+                playback.awaitEnd();
+            } catch (InterruptedException e) {
+                System.out.println("Interrupted!");
+            }
+            playback.stop();
+        }
         maze.removePlayers();
         if (path != null) {
             maze.markPath(path);
         }
+        if (paths != null) {
+            for (List<Integer> goalPath: paths.values())
+                maze.markPath(goalPath);
+        }
     }
 }
 
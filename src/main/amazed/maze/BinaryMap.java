@@ -0,0 +1,193 @@
+package amazed.maze;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Compact binary map format, opened by memory mapping.
+ * <p>
+ * A binary map starts with a header of big-endian 32-bit integers:
+ * the magic number <code>AMZB</code>, the format version, the number
+ * of rows, the number of columns, the number of hearts, and the dense
+ * index (<code>row * cols + col</code>) of every heart in increasing
+ * order. The tiles follow, two bits per cell in row-major order, four
+ * cells per byte starting from the least significant bits: 0 is an
+ * empty cell, 1 a brick, 2 a solid wall and 3 a heart.
+ * <p>
+ * Opening a binary map only reads its header; the tiles are read
+ * through a <code>MappedByteBuffer</code> when they are used, so a map
+ * whose text form takes gigabytes loads almost instantly, does not
+ * occupy the heap, and shares the page cache among all processes that
+ * open it. Binary maps are written by <code>convert</code> from text
+ * maps.
+ */
+public final class BinaryMap
+{
+    private static final int MAGIC = 0x414D5A42;
+    private static final int VERSION = 1;
+    // magic, version, rows, cols, hearts
+    private static final int HEADER_SIZE = 5 * Integer.BYTES;
+
+    // 2-bit code --> tile ordinal
+    private static final byte[] TILES = {
+        (byte) Tile.EMPTY.ordinal(),
+        (byte) Tile.BRICK.ordinal(),
+        (byte) Tile.SOLID.ordinal(),
+        (byte) Tile.HEART.ordinal()
+    };
+    // tile ordinal --> 2-bit code
+    private static final byte[] CODES = new byte[Tile.values().length];
+    static {
+        for (int code = 0; code < TILES.length; code++)
+            CODES[TILES[code]] = (byte) code;
+    }
+
+    private final int nRows;
+    private final int nCols;
+    private final int[] hearts;
+    private final MappedByteBuffer buffer;
+    // position of the first tile byte in `buffer'
+    private final int tilesStart;
+
+    private BinaryMap(int nRows, int nCols, int[] hearts,
+                      MappedByteBuffer buffer, int tilesStart)
+    {
+        this.nRows = nRows;
+        this.nCols = nCols;
+        this.hearts = hearts;
+        this.buffer = buffer;
+        this.tilesStart = tilesStart;
+    }
+
+    /**
+     * Returns whether file <code>filename</code> starts as a binary map.
+     */
+    static boolean isBinary(String filename)
+    throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            while (magic.hasRemaining())
+                if (channel.read(magic) == -1)
+                    return false;
+            return magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Maps binary map file <code>filename</code> into memory.
+     */
+    static BinaryMap open(String filename)
+    throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE)
+                throw new IOException("binary map " + filename + " is too large");
+            if (length < HEADER_SIZE)
+                throw new IOException("binary map " + filename + " is truncated");
+            // the mapping remains valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt(0) != MAGIC)
+                throw new IOException(filename + " is not a binary map");
+            if (buffer.getInt(4) != VERSION)
+                throw new IOException("binary map " + filename
+                                      + " has unsupported version " + buffer.getInt(4));
+            int nRows = buffer.getInt(8);
+            int nCols = buffer.getInt(12);
+            int nHearts = buffer.getInt(16);
+            long size = (long) nRows * nCols;
+            long tilesStart = HEADER_SIZE + (long) nHearts * Integer.BYTES;
+            if (nRows < 0 || nCols < 0 || nHearts < 0 || size > Integer.MAX_VALUE - 8
+                || nHearts > size || length != tilesStart + (size + 3) / 4)
+                throw new IOException("binary map " + filename + " is corrupt");
+            int[] hearts = new int[nHearts];
+            for (int i = 0; i < nHearts; i++) {
+                hearts[i] = buffer.getInt(HEADER_SIZE + i * Integer.BYTES);
+                if (hearts[i] < 0 || hearts[i] >= size || (i > 0 && hearts[i] <= hearts[i - 1]))
+                    throw new IOException("binary map " + filename + " is corrupt");
+            }
+            return new BinaryMap(nRows, nCols, hearts, buffer, (int) tilesStart);
+        }
+    }
+
+    /**
+     * Converts text map file <code>mapFile</code> into binary map file
+     * <code>binaryFile</code>, and returns the number of bytes written.
+     *
+     * @param mapFile      filename of the text map to read
+     * @param binaryFile   filename of the binary map to write
+     * @return             the size of the binary map, in bytes
+     * @throws IOException   if a file cannot be read or written
+     */
+    public static long convert(String mapFile, String binaryFile)
+    throws IOException
+    {
+        MapParser parser = MapParser.parse(mapFile);
+        byte[] tiles = parser.getTiles();
+        int size = tiles.length;
+        byte heart = (byte) Tile.HEART.ordinal();
+        int nHearts = 0;
+        for (byte tile: tiles)
+            if (tile == heart)
+                nHearts += 1;
+        Path path = Paths.get(binaryFile);
+        try (OutputStream file = Files.newOutputStream(path);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(parser.getRows());
+            out.writeInt(parser.getCols());
+            out.writeInt(nHearts);
+            for (int index = 0; index < size; index++)
+                if (tiles[index] == heart)
+                    out.writeInt(index);
+            for (int index = 0; index < size; index += 4) {
+                int packed = 0;
+                for (int i = 0; i < 4 && index + i < size; i++)
+                    packed |= code(tiles[index + i]) << (2 * i);
+                out.write(packed);
+            }
+        }
+        return Files.size(path);
+    }
+
+    // 2-bit code of `tile'; tiles a map cannot contain are empty
+    private static int code(byte tile)
+    {
+        return tile >= 0 && tile < CODES.length ? CODES[tile] : 0;
+    }
+
+    int getRows()
+    {
+        return nRows;
+    }
+
+    int getCols()
+    {
+        return nCols;
+    }
+
+    // dense indices of all hearts, in increasing order
+    int[] getHearts()
+    {
+        return hearts;
+    }
+
+    // tile ordinal of the cell with dense index `index'
+    byte tile(int index)
+    {
+        int packed = buffer.get(tilesStart + (index >>> 2));
+        return TILES[(packed >>> ((index & 3) << 1)) & 3];
+    }
+}
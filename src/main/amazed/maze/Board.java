@@ -1,23 +1,21 @@
 package amazed.maze;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.io.*;
+import java.io.IOException;
+import java.io.StringWriter;
 
 
 public class Board
 {
 
+    // created on first access from the tiles of `graph', since only
+    // animation and display need cell objects
     // after creation, read-only access (except for operation markPath)
-    private Cell[][] board;
+    private volatile Cell[][] board;
     private int nRows;
     private int nCols;
 
@@ -26,10 +24,18 @@ public class Board
     private final Map<Integer, Player> players;
     // count of number of registered players, to ensure unique player ids
     private final AtomicInteger nPlayers = new AtomicInteger();
+    // number of calls to markPath, so that displays know when to
+    // repaint the whole board
+    private volatile int marks;
+    // changes of position of players, for displays and other observers
+    private final MoveFeed moves = new MoveFeed(MOVE_FEED_CAPACITY);
 
-    // unique node id --> coordinate position of node on board
+    private static final int MOVE_FEED_CAPACITY = 1 << 12;
+
+    // graph of the accessible cells, indexed densely; also maps
+    // unique node ids to coordinate positions of nodes on board
     // after creation, read-only access
-    private Map<Integer, Position> idToCell;
+    private MazeGraph graph;
 
     // empty board
     Board(int nRows, int nCols)
@@ -38,49 +44,88 @@ public class Board
         this.nRows = nRows;
         this.nCols = nCols;
         players = new ConcurrentHashMap<>();
-        idToCell = new HashMap<>();
     }
 
-    // board from map `filename'
+    // board from map `filename', either text or binary
     Board(String filename)
     {
+        this();
         try {
             readMap(filename);
         } catch (IOException e) {
             System.err.println("Error: cannot open map file " + filename);
             System.exit(1);
         }
+    }
+
+    // board whose map is read by the caller
+    private Board()
+    {
         players = new ConcurrentHashMap<>();
     }
 
+    // board over the cells of `graph', which may be shared with other
+    // boards; players, marks and moves are this board's own
+    Board(MazeGraph graph)
+    {
+        this();
+        this.graph = graph;
+        nRows = graph.getRows();
+        nCols = graph.getCols();
+    }
+
+    // board from map `filename', either text or binary, failing
+    // instead of exiting if the map cannot be read
+    static Board open(String filename)
+    throws IOException
+    {
+        Board board = new Board();
+        board.readMap(filename);
+        return board;
+    }
+
+    MoveFeed getMoves()
+    {
+        return moves;
+    }
+
+    MazeGraph getGraph()
+    {
+        return graph;
+    }
+
     Cell getCell(int row, int col)
     {
-        return board[row][col];
+        return cells()[row][col];
     }
 
     Cell getCell(Position position)
     {
-        return board[position.getRow()][position.getCol()];
+        return cells()[position.getRow()][position.getCol()];
     }
 
     Cell getCell(int id)
     {
-        return getCell(idToCell.get(id));
+        return getCell(getPosition(id));
     }
 
+    // position of node `id', or null if there is no such node
     Position getPosition(int id)
     {
-        return idToCell.get(id);
+        int index = graph.index(id);
+        if (index < 0)
+            return null;
+        return new Position(index / nCols, index % nCols);
     }
 
     int getWidth()
     {
-        return nCols * board[0][0].getWidth();
+        return nCols * cells()[0][0].getWidth();
     }
 
     int getHeight()
     {
-        return nRows * board[0][0].getHeight();
+        return nRows * cells()[0][0].getHeight();
     }
 
     int getRows()
@@ -107,75 +152,54 @@ public class Board
         List<Position> positionPath = pathToPositions(path);
         for (Position position: positionPath) {
             int row = position.getRow(), col = position.getCol();
-            board[row][col] = getCell(position).marked();
+            cells()[row][col] = getCell(position).marked();
         }
+        marks += 1;
+    }
+
+    int getMarks()
+    {
+        return marks;
     }
 
     private void readMap(String mapFile)
-    throws FileNotFoundException, IOException
-    {
-        Cell cell;
-        int row = 0, col = 0, nId = 0;
-        List<Integer> ids = null;
-        try (BufferedReader br = new BufferedReader(new FileReader(mapFile))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                // remove whitespaces
-                line = line.replaceAll("\\s", "");
-                StringReader lineReader = new StringReader(line);
-                int ch, id = 0;
-                line_loop:
-                while ((ch = lineReader.read()) != -1) {
-                    switch (ch) {
-                    case '@':
-                        break line_loop;
-                    case '$':
-                        Pattern p = Pattern.compile("^\\$(\\d+),(\\d+)$");
-                        Matcher m = p.matcher(line);
-                        if (m.find()) {
-                            nRows = Integer.parseInt(m.group(1));
-                            nCols = Integer.parseInt(m.group(2));
-                            board = new Cell[nRows][nCols];
-                            int numCells = nRows*nCols;
-                            ids = new ArrayList<>(2*numCells);
-                            for (int i = -numCells; i < numCells; i++)
-                                ids.add(i);
-                            Collections.shuffle(ids);
-                            idToCell = new HashMap<>(numCells);
-                        }
-                        break line_loop;
-                    default:
-                        if (row < nRows && col < nCols)
-                            id = ids.get(nId++);
-                        if (ch == Tile.EMPTY.getChar())
-                            cell = new Cell(Tile.EMPTY, id);
-                        else if (ch == Tile.SOLID.getChar())
-                            cell = new Cell(Tile.SOLID, id);
-                        else if (ch == Tile.BRICK.getChar())
-                            cell = new Cell(Tile.BRICK, id);
-                        else if (ch == Tile.HEART.getChar())
-                            cell = new Cell(Tile.HEART, id);
-                        else {
-                            System.out.println("Unrecognized symbol " +
-                                               Character.toString((char) ch) + " on " +
-                                               "row " + row + " column " + col);
-                            System.out.println("... using empty cell instead.");
-                            cell = new Cell(Tile.EMPTY, id);
+    throws IOException
+    {
+        graph = readGraph(mapFile);
+        nRows = graph.getRows();
+        nCols = graph.getCols();
+    }
+
+    // graph of map `mapFile', either text or binary
+    static MazeGraph readGraph(String mapFile)
+    throws IOException
+    {
+        if (BinaryMap.isBinary(mapFile))
+            return new MazeGraph(BinaryMap.open(mapFile));
+        MapParser parser = MapParser.parse(mapFile);
+        return new MazeGraph(parser.getTiles(), parser.getRows(), parser.getCols());
+    }
+
+    private Cell[][] cells()
+    {
+        Cell[][] cells = board;
+        if (cells == null) {
+            synchronized (this) {
+                cells = board;
+                if (cells == null) {
+                    cells = new Cell[nRows][nCols];
+                    Tile[] values = Tile.values();
+                    for (int row = 0; row < nRows; row++) {
+                        for (int col = 0; col < nCols; col++) {
+                            int index = row * nCols + col;
+                            cells[row][col] = new Cell(values[graph.tile(index)], graph.id(index));
                         }
                     }
-                    // Ignore rows and columns beyond the declared ones
-                    if (row < nRows && col < nCols) {
-                        board[row][col] = cell;
-                        idToCell.put(id, new Position(row, col));
-                        col += 1;
-                    }
-                }
-                if (nCols > 0 && col == nCols) {
-                    row += 1;
-                    col = 0;
+                    board = cells;
                 }
             }
         }
+        return cells;
     }
 
     String asText()
@@ -184,31 +208,13 @@ public class Board
         for (int row = 0; row < nRows; row++) {
             for (int col = 0; col < nCols; col++) {
                 result.append(' ');
-                result.append(board[row][col].getText());
+                result.append(cells()[row][col].getText());
             }
             result.append('\n');
         }
         return result.toString();
     }
 
-    // printable deep copy of the board with all players in consistent positions
-    Board consistentBoard()
-    {
-        Board result = new Board(nRows, nCols);
-        for (int row = 0; row < nRows; row++) {
-            for (int col = 0; col < nCols; col++) {
-                Cell cell = board[row][col];
-                result.board[row][col] = new Cell(cell.getTile(), cell.getId());
-            }
-        }
-        for (Player player: players.values()) {
-            Position pos = player.getPosition();
-            Player newPlayer = new Player(player.getId(), player.getName());
-            newPlayer.onBoard(result, pos.getRow(), pos.getCol());
-        }
-        return result;
-    }
-
     // is the position row, col a valid position on the board?
     boolean isOnBoard(int row, int col)
     {
@@ -217,7 +223,7 @@ public class Board
 
     boolean isAccessible(int row, int col)
     {
-        return isOnBoard(row, col) && board[row][col].isAccessible();
+        return isOnBoard(row, col) && cells()[row][col].isAccessible();
     }
 
     Position move(Position position, Direction direction)
@@ -245,24 +251,31 @@ public class Board
     void register(Player player, int row, int col)
     {
         if (isOnBoard(row, col)) {
-            board[row][col].add(player);
+            cells()[row][col].add(player);
             players.put(player.getId(), player);
+            moves.publish(player.getId(), -1, row * nCols + col);
         }
     }
 
-    int newPlayer(int id)
+    // unique identifier for a player not yet on the board
+    int newPlayerId()
+    {
+        return nPlayers.getAndIncrement();
+    }
+
+    // add new player with identifier `playerId' at position row, col
+    void spawn(int playerId, int row, int col)
     {
-        int playerId = nPlayers.getAndIncrement();
         Player player = new Player(playerId, "thread_" + playerId);
-        player.onBoard(this, id);
-        return playerId;
+        player.onBoard(this, row, col);
     }
 
     void deregister(Player player, int row, int col)
     {
         if (isOnBoard(row, col)) {
-            board[row][col].remove(player);
+            cells()[row][col].remove(player);
             players.remove(player.getId());
+            moves.publish(player.getId(), row * nCols + col, -1);
         }
     }
 
@@ -286,10 +299,11 @@ public class Board
         int row = player.getRow();
         int col = player.getCol();
         if (isOnBoard(newRow, newCol) && players.containsKey(player.getId())) {
-            board[row][col].remove(player);
-            board[newRow][newCol].add(player);
+            cells()[row][col].remove(player);
+            cells()[newRow][newCol].add(player);
             player.setRow(newRow);
             player.setCol(newCol);
+            moves.publish(player.getId(), row * nCols + col, newRow * nCols + newCol);
         }
     }
 }
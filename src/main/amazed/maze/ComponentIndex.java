@@ -0,0 +1,127 @@
+package amazed.maze;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Labels of the connected components of the accessible cells of a
+ * graph, and which components contain a goal.
+ * <p>
+ * Components are found by union-find over dense indices, in two
+ * phases. First, the rows are split into bands of
+ * <code>BAND_ROWS</code> rows that are labeled in parallel, each by a
+ * task that only links cells of its own band, so tasks never touch
+ * the same entries. Then the links that cross from a band to the next
+ * are merged sequentially. The representative of a component is its
+ * smallest dense index, so every parent precedes its child, and a
+ * final pass in increasing index order flattens every cell to its
+ * representative. An inaccessible cell is a component of its own.
+ * <p>
+ * The labels are always on the heap, four bytes per cell plus a bit
+ * per cell for the goal components, even when the graph reads its
+ * tiles from a memory-mapped <code>BinaryMap</code>: labeling a mapped
+ * map gives up the small heap footprint of the mapping, which is why
+ * the index is only built when a search first asks for it.
+ */
+final class ComponentIndex
+{
+    // rows labeled by one task
+    private static final int BAND_ROWS = 64;
+
+    private static final int EAST = 1 << Direction.EAST.ordinal();
+    private static final int SOUTH = 1 << Direction.SOUTH.ordinal();
+
+    private final MazeGraph graph;
+    private final int cols;
+    // representative of the component of every cell
+    private final int[] roots;
+    // bitset of the representatives of components with a goal
+    private final long[] goalRoots;
+
+    ComponentIndex(MazeGraph graph)
+    {
+        this.graph = graph;
+        this.cols = graph.getCols();
+        int rows = graph.getRows();
+        int size = graph.size();
+        roots = new int[size];
+        List<RecursiveAction> bands = new ArrayList<>();
+        for (int row = 0; row < rows; row += BAND_ROWS) {
+            int from = row, to = Math.min(rows, row + BAND_ROWS);
+            bands.add(new RecursiveAction() {
+                    @Override
+                    protected void compute()
+                    {
+                        label(from, to);
+                    }
+                });
+        }
+        ForkJoinTask.invokeAll(bands);
+        for (int row = BAND_ROWS; row < rows; row += BAND_ROWS) {
+            for (int index = (row - 1) * cols; index < row * cols; index++)
+                if ((graph.links(index) & SOUTH) != 0)
+                    union(index, index + cols);
+        }
+        for (int index = 0; index < size; index++)
+            roots[index] = roots[roots[index]];
+        goalRoots = new long[(size + 63) >>> 6];
+        for (int goal: graph.goals())
+            goalRoots[roots[goal] >>> 6] |= 1L << roots[goal];
+    }
+
+    // links the cells of rows `from' to `to' (excluded) with their
+    // east and south neighbors in the same rows
+    private void label(int from, int to)
+    {
+        int first = from * cols, last = to * cols;
+        for (int index = first; index < last; index++)
+            roots[index] = index;
+        for (int index = first; index < last; index++) {
+            int links = graph.links(index);
+            if ((links & EAST) != 0)
+                union(index, index + 1);
+            if ((links & SOUTH) != 0 && index + cols < last)
+                union(index, index + cols);
+        }
+    }
+
+    private int find(int index)
+    {
+        while (roots[index] != index) {
+            roots[index] = roots[roots[index]];
+            index = roots[index];
+        }
+        return index;
+    }
+
+    private void union(int a, int b)
+    {
+        int rootA = find(a), rootB = find(b);
+        if (rootA < rootB)
+            roots[rootB] = rootA;
+        else if (rootB < rootA)
+            roots[rootA] = rootB;
+    }
+
+    // representative of the component of the cell with dense index `index'
+    int component(int index)
+    {
+        return roots[index];
+    }
+
+    // whether the component of `index' contains a goal of the map
+    boolean reachesGoal(int index)
+    {
+        int root = roots[index];
+        return (goalRoots[root >>> 6] & (1L << root)) != 0;
+    }
+
+    // approximate bytes held by an index of a graph with `size' cells
+    static long weight(int size)
+    {
+        return 4L * size + size / 8;
+    }
+}
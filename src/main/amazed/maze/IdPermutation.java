@@ -0,0 +1,89 @@
+package amazed.maze;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+
+/**
+ * Random bijection on the integers from <code>0</code> to
+ * <code>size - 1</code>, computed on the fly.
+ * <p>
+ * It is a four-round Feistel network on the smallest power of four
+ * that is at least <code>size</code>, with random round keys; values
+ * that fall outside the range are mapped again until they fall
+ * inside (cycle walking). Both directions take a few multiplications
+ * and need no tables, so node identifiers can be randomized without
+ * storing a shuffled array of them.
+ */
+final class IdPermutation
+{
+    private static final int ROUNDS = 4;
+
+    private final long size;
+    private final int halfBits;
+    private final int halfMask;
+    private final long[] keys = new long[ROUNDS];
+
+    IdPermutation(long size)
+    {
+        this.size = size;
+        int bits = 64 - Long.numberOfLeadingZeros(Math.max(1, size - 1));
+        halfBits = Math.max(1, (bits + 1) / 2);
+        halfMask = (1 << halfBits) - 1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < ROUNDS; i++)
+            keys[i] = random.nextLong();
+    }
+
+    long size()
+    {
+        return size;
+    }
+
+    // image of `x', for 0 <= x < size
+    long forward(long x)
+    {
+        do {
+            x = encrypt(x);
+        } while (x >= size);
+        return x;
+    }
+
+    // preimage of `y', for 0 <= y < size
+    long inverse(long y)
+    {
+        do {
+            y = decrypt(y);
+        } while (y >= size);
+        return y;
+    }
+
+    private long encrypt(long x)
+    {
+        int left = (int) (x >>> halfBits), right = (int) x & halfMask;
+        for (int i = 0; i < ROUNDS; i++) {
+            int next = left ^ round(right, keys[i]);
+            left = right;
+            right = next;
+        }
+        return ((long) left << halfBits) | right;
+    }
+
+    private long decrypt(long y)
+    {
+        int left = (int) (y >>> halfBits), right = (int) y & halfMask;
+        for (int i = ROUNDS - 1; i >= 0; i--) {
+            int previous = right ^ round(left, keys[i]);
+            right = left;
+            left = previous;
+        }
+        return ((long) left << halfBits) | right;
+    }
+
+    private int round(int half, long key)
+    {
+        long h = (half + key) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        return (int) (h >>> 32) & halfMask;
+    }
+}
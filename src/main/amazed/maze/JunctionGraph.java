@@ -0,0 +1,332 @@
+package amazed.maze;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Contraction of the component of the start node of a maze into a
+ * graph of junctions, connected by corridors.
+ * <p>
+ * The graph is built in two passes over the cells of the component.
+ * First, dead ends are removed: a cell with one accessible neighbor
+ * that is neither the start nor a goal is removed, and so on until no
+ * such cell is left. No path from the start to a goal passes through
+ * a removed cell. Then, the cells that are left are split into
+ * junctions and corridors: a junction is the start, a goal, or a cell
+ * with other than two neighbors that are left; every other cell is on
+ * a corridor, a chain of cells between two junctions. Each corridor
+ * becomes an edge between its junctions, weighted by the number of
+ * steps along it; a corridor that leads back to the junction it
+ * leaves is dropped.
+ * <p>
+ * Junctions are identified by the same dense indices and node
+ * identifiers as the cells of the maze, so a search over the junction
+ * graph keeps its visited set and predecessors over dense indices. A
+ * path of junctions, each adjacent to the next in this graph, becomes
+ * a path of cells in the maze with <code>expand</code>, which walks
+ * the corridors again.
+ * <p>
+ * Instances are immutable, and shared by all mazes over the same map
+ * with the same start and goals.
+ */
+public final class JunctionGraph
+{
+    private final MazeGraph graph;
+    // bitset of the dense indices of cells left after removing dead ends
+    private final long[] kept;
+    // dense indices of the junctions, in increasing order
+    private final int[] junctions;
+    // the edges of junctions[j] are offsets[j] to offsets[j + 1] (excluded)
+    private final int[] offsets;
+    // dense index of the junction at the other end of every edge
+    private final int[] targets;
+    // first cell of the corridor of every edge, which is its target
+    // for a corridor of one step
+    private final int[] firsts;
+    // steps along the corridor of every edge
+    private final int[] lengths;
+    private final int cells;
+
+    JunctionGraph(MazeGraph graph, int start, int[] goals)
+    {
+        this.graph = graph;
+        int size = graph.size();
+        ComponentIndex components = graph.components();
+        int component = components.component(start);
+        long[] terminal = new long[(size + 63) >>> 6];
+        terminal[start >>> 6] |= 1L << start;
+        for (int goal: goals)
+            if (components.component(goal) == component)
+                terminal[goal >>> 6] |= 1L << goal;
+        kept = new long[(size + 63) >>> 6];
+        // neighbors left of every kept cell; all neighbors of a cell
+        // are in its component
+        byte[] degree = new byte[size];
+        int[] stack = new int[16];
+        int top = 0;
+        for (int index = 0; index < size; index++) {
+            if (components.component(index) != component)
+                continue;
+            kept[index >>> 6] |= 1L << index;
+            degree[index] = (byte) graph.degree(index);
+            if (degree[index] == 1 && !isSet(terminal, index)) {
+                if (top == stack.length)
+                    stack = Arrays.copyOf(stack, 2 * top);
+                stack[top++] = index;
+            }
+        }
+        int[] neighbors = new int[4];
+        while (top > 0) {
+            int index = stack[--top];
+            kept[index >>> 6] &= ~(1L << index);
+            int n = graph.neighbors(index, neighbors);
+            for (int i = 0; i < n; i++) {
+                int nb = neighbors[i];
+                if (!isSet(kept, nb))
+                    continue;
+                degree[nb] -= 1;
+                if (degree[nb] == 1 && !isSet(terminal, nb)) {
+                    if (top == stack.length)
+                        stack = Arrays.copyOf(stack, 2 * top);
+                    stack[top++] = nb;
+                }
+            }
+        }
+
+        int count = 0, left = 0, edges = 0;
+        for (int index = 0; index < size; index++) {
+            if (!isSet(kept, index))
+                continue;
+            left += 1;
+            if (degree[index] != 2 || isSet(terminal, index)) {
+                count += 1;
+                edges += degree[index];
+            }
+        }
+        cells = left;
+        junctions = new int[count];
+        for (int index = 0, j = 0; j < count; index++)
+            if (isSet(kept, index) && (degree[index] != 2 || isSet(terminal, index)))
+                junctions[j++] = index;
+
+        offsets = new int[count + 1];
+        int[] scratch = new int[4];
+        int[] targets = new int[edges], firsts = new int[edges], lengths = new int[edges];
+        int edge = 0;
+        for (int j = 0; j < count; j++) {
+            offsets[j] = edge;
+            int junction = junctions[j];
+            int n = keptNeighbors(junction, neighbors);
+            for (int i = 0; i < n; i++) {
+                int previous = junction, current = neighbors[i], length = 1;
+                while (!isJunction(current)) {
+                    int next = keptNeighbor(current, previous, scratch);
+                    previous = current;
+                    current = next;
+                    length += 1;
+                }
+                if (current == junction)
+                    continue;
+                targets[edge] = current;
+                firsts[edge] = neighbors[i];
+                lengths[edge] = length;
+                edge += 1;
+            }
+        }
+        offsets[count] = edge;
+        this.targets = Arrays.copyOf(targets, edge);
+        this.firsts = Arrays.copyOf(firsts, edge);
+        this.lengths = Arrays.copyOf(lengths, edge);
+    }
+
+    private static boolean isSet(long[] bits, int index)
+    {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    // stores into `out' the neighbors of `index' left after removing
+    // dead ends, and returns how many there are
+    private int keptNeighbors(int index, int[] out)
+    {
+        int n = graph.neighbors(index, out);
+        int k = 0;
+        for (int i = 0; i < n; i++)
+            if (isSet(kept, out[i]))
+                out[k++] = out[i];
+        return k;
+    }
+
+    // the neighbor other than `previous' of corridor cell `index';
+    // `out' has room for four elements
+    private int keptNeighbor(int index, int previous, int[] out)
+    {
+        int n = keptNeighbors(index, out);
+        return out[0] != previous ? out[0] : out[n - 1];
+    }
+
+    // position of junction `index' in `junctions', or a negative value
+    private int position(int index)
+    {
+        return Arrays.binarySearch(junctions, index);
+    }
+
+    // approximate bytes held by this graph
+    long weight()
+    {
+        return 64 + 8L * kept.length + 4L * (junctions.length + offsets.length)
+            + 12L * targets.length;
+    }
+
+    /**
+     * Returns the number of junctions.
+     *
+     * @return   the number of nodes of this graph
+     */
+    public int size()
+    {
+        return junctions.length;
+    }
+
+    /**
+     * Returns the number of corridors between junctions, each counted
+     * from both ends.
+     *
+     * @return   the number of edges of this graph
+     */
+    public int edges()
+    {
+        return targets.length;
+    }
+
+    /**
+     * Returns the number of cells left after removing dead ends,
+     * junctions included.
+     *
+     * @return   the number of cells that junctions and corridors cover
+     */
+    public int cells()
+    {
+        return cells;
+    }
+
+    /**
+     * Tests whether the cell with a given dense index is a junction.
+     *
+     * @param index   the dense index of a node in the maze
+     * @return        <code>true</code> if the node is a junction;
+     *                <code>false</code> otherwise
+     */
+    public boolean isJunction(int index)
+    {
+        return position(index) >= 0;
+    }
+
+    /**
+     * Stores into <code>out</code> the dense indices of the junctions
+     * at the other ends of the corridors that leave junction
+     * <code>index</code>, and returns their number. If
+     * <code>lengths</code> is not <code>null</code>, it receives the
+     * number of steps along each corridor, in the same order. Two
+     * corridors may lead to the same junction.
+     *
+     * @param index     the dense index of a junction
+     * @param out       an array with room for at least four elements
+     * @param lengths   an array with room for at least four elements,
+     *                  or <code>null</code>
+     * @return          the number of indices stored at the beginning of
+     *                  <code>out</code>, from zero to four; zero if
+     *                  <code>index</code> is not a junction
+     */
+    public int neighborIndices(int index, int[] out, int[] lengths)
+    {
+        int j = position(index);
+        if (j < 0)
+            return 0;
+        int n = offsets[j + 1] - offsets[j];
+        System.arraycopy(targets, offsets[j], out, 0, n);
+        if (lengths != null)
+            System.arraycopy(this.lengths, offsets[j], lengths, 0, n);
+        return n;
+    }
+
+    /**
+     * Returns the set of the identifiers of the junctions at the other
+     * ends of the corridors that leave a given junction.
+     *
+     * @param id   the identifier of a junction
+     * @return     the set of identifiers of the junctions that
+     *             <code>id</code> leads to; empty if <code>id</code> is
+     *             not a junction
+     */
+    public Set<Integer> neighbors(int id)
+    {
+        int[] out = new int[4];
+        int n = neighborIndices(graph.index(id), out, null);
+        Set<Integer> neighbors = new HashSet<>(4);
+        for (int i = 0; i < n; i++)
+            neighbors.add(graph.id(out[i]));
+        return neighbors;
+    }
+
+    /**
+     * Returns the path of cells that a path of junctions stands for:
+     * the corridors between consecutive junctions are inserted
+     * between them. Where two corridors connect the same junctions,
+     * the shorter is taken.
+     *
+     * @param path   a list of identifiers of junctions, each connected
+     *               to the next by a corridor, or <code>null</code>
+     * @return       the list of identifiers of the cells along
+     *               <code>path</code>; <code>null</code> if
+     *               <code>path</code> is <code>null</code> or two
+     *               consecutive junctions are not connected
+     */
+    public List<Integer> expand(List<Integer> path)
+    {
+        if (path == null)
+            return null;
+        List<Integer> cells = new ArrayList<>(path.size());
+        int previous = -1;
+        for (int id: path) {
+            int index = graph.index(id);
+            if (previous >= 0 && !appendCorridor(previous, index, cells))
+                return null;
+            cells.add(id);
+            previous = index;
+        }
+        return cells;
+    }
+
+    // appends to `cells' the identifiers of the cells strictly between
+    // junctions `from' and `to' along the shortest corridor joining them
+    private boolean appendCorridor(int from, int to, List<Integer> cells)
+    {
+        int j = position(from), best = -1;
+        if (j < 0)
+            return false;
+        for (int edge = offsets[j]; edge < offsets[j + 1]; edge++)
+            if (targets[edge] == to && (best < 0 || lengths[edge] < lengths[best]))
+                best = edge;
+        if (best < 0)
+            return false;
+        int[] scratch = new int[4];
+        for (int previous = from, current = firsts[best]; current != to; ) {
+            cells.add(graph.id(current));
+            int next = keptNeighbor(current, previous, scratch);
+            previous = current;
+            current = next;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "JunctionGraph[" + junctions.length + " junctions, " + targets.length
+            + " edges, " + cells + " of " + graph.size() + " cells]";
+    }
+}
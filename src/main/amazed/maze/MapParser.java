@@ -0,0 +1,241 @@
+package amazed.maze;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Byte-oriented reader of map files.
+ * <p>
+ * The file is read through a <code>FileChannel</code> into one
+ * reusable buffer, and every byte goes through a small state
+ * machine that fills a <code>byte[]</code> of tile ordinals, one per
+ * cell in row-major order. Parsing creates no strings, regular
+ * expressions or boxed values, so its garbage does not grow with the
+ * size of the map.
+ * <p>
+ * The accepted format is the one documented in the map files:
+ * whitespace is ignored; a line whose first symbol is <code>@</code>
+ * is a comment, and <code>@</code> ends any line; a line
+ * <code>$ rows,cols</code> declares the size of the map; every other
+ * symbol is a cell, and symbols beyond the declared rows and columns
+ * are ignored.
+ */
+final class MapParser
+{
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final byte EMPTY = (byte) Tile.EMPTY.ordinal();
+    private static final byte BRICK = (byte) Tile.BRICK.ordinal();
+    private static final byte SOLID = (byte) Tile.SOLID.ordinal();
+    private static final byte HEART = (byte) Tile.HEART.ordinal();
+
+    // what the rest of the current line is
+    private static final int CELLS = 0, HEADER = 1, SKIP = 2;
+
+    // byte --> tile ordinal, BLANK for ignored whitespace, or OTHER
+    private static final byte BLANK = -1, OTHER = -2;
+    private static final byte[] KIND = new byte[256];
+    static {
+        Arrays.fill(KIND, OTHER);
+        KIND[' '] = KIND['\t'] = KIND['\r'] = KIND['\f'] = BLANK;
+        KIND['.'] = EMPTY;
+        KIND['#'] = SOLID;
+        KIND['*'] = BRICK;
+        KIND['v'] = HEART;
+    }
+
+    private int nRows, nCols;
+    private byte[] tiles;
+    private long bytesRead;
+    private long nanos;
+    private final String filename;
+
+    // parser state
+    private int row, col;
+    private int mode = CELLS;
+    private boolean lineStart = true;
+    private long headerRows, headerCols;
+    private int headerField;
+    private boolean headerValid;
+
+    private MapParser(String filename)
+    {
+        this.filename = filename;
+    }
+
+    /**
+     * Parses map file <code>filename</code>.
+     */
+    static MapParser parse(String filename)
+    throws IOException
+    {
+        MapParser parser = new MapParser(filename);
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            byte[] bytes = buffer.array();
+            int n;
+            while ((n = channel.read(buffer)) != -1) {
+                parser.bytesRead += n;
+                parser.consume(bytes, n);
+                buffer.clear();
+            }
+            parser.accept((byte) '\n');
+        }
+        parser.nanos = System.nanoTime() - start;
+        if (parser.tiles == null)
+            throw new IOException("no map size declared in " + filename);
+        return parser;
+    }
+
+    int getRows()
+    {
+        return nRows;
+    }
+
+    int getCols()
+    {
+        return nCols;
+    }
+
+    // tile ordinal of every cell, in row-major order
+    byte[] getTiles()
+    {
+        return tiles;
+    }
+
+    long getBytesRead()
+    {
+        return bytesRead;
+    }
+
+    // parse throughput, in megabytes per second
+    double getThroughput()
+    {
+        return nanos == 0 ? 0 : bytesRead / 1e6 / (nanos / 1e9);
+    }
+
+    // fast path for runs of cells and blanks; anything else goes to accept
+    private void consume(byte[] bytes, int n)
+    throws IOException
+    {
+        for (int i = 0; i < n; i++) {
+            byte ch = bytes[i];
+            byte kind = KIND[ch & 0xFF];
+            if (kind == BLANK)
+                continue;
+            if (kind >= 0 && mode == CELLS) {
+                lineStart = false;
+                if (tiles != null && row < nRows && col < nCols) {
+                    tiles[row * nCols + col] = kind;
+                    col += 1;
+                }
+                continue;
+            }
+            accept(ch);
+        }
+    }
+
+    private void accept(byte ch)
+    throws IOException
+    {
+        switch (ch) {
+        case '\n':
+            endLine();
+            return;
+        case ' ':
+        case '\t':
+        case '\r':
+        case '\f':
+            return;
+        }
+        boolean first = lineStart;
+        lineStart = false;
+        switch (mode) {
+        case SKIP:
+            return;
+        case HEADER:
+            header(ch);
+            return;
+        }
+        switch (ch) {
+        case '@':
+            mode = SKIP;
+            return;
+        case '$':
+            if (first) {
+                mode = HEADER;
+                headerRows = headerCols = 0;
+                headerField = 0;
+                headerValid = false;
+            } else
+                mode = SKIP;
+            return;
+        }
+        if (tiles == null || row >= nRows || col >= nCols)
+            return;
+        byte tile;
+        switch (ch) {
+        case '.':
+            tile = EMPTY;
+            break;
+        case '#':
+            tile = SOLID;
+            break;
+        case '*':
+            tile = BRICK;
+            break;
+        case 'v':
+            tile = HEART;
+            break;
+        default:
+            System.out.println("Unrecognized symbol " + (char) (ch & 0xFF) + " on "
+                               + "row " + row + " column " + col);
+            System.out.println("... using empty cell instead.");
+            tile = EMPTY;
+        }
+        tiles[row * nCols + col] = tile;
+        col += 1;
+    }
+
+    // `$ rows,cols', after the `$'
+    private void header(byte ch)
+    {
+        if (ch >= '0' && ch <= '9') {
+            if (headerField == 0)
+                headerRows = Math.min(Integer.MAX_VALUE, 10 * headerRows + (ch - '0'));
+            else
+                headerCols = Math.min(Integer.MAX_VALUE, 10 * headerCols + (ch - '0'));
+            headerValid = true;
+        } else if (ch == ',' && headerField == 0 && headerValid) {
+            headerField = 1;
+            headerValid = false;
+        } else
+            mode = SKIP;
+    }
+
+    private void endLine()
+    throws IOException
+    {
+        if (mode == HEADER && headerField == 1 && headerValid) {
+            if (headerRows * headerCols > Integer.MAX_VALUE - 8)
+                throw new IOException("map " + filename + " of " + headerRows + "x" + headerCols
+                                      + " cells is too large");
+            nRows = (int) headerRows;
+            nCols = (int) headerCols;
+            tiles = new byte[nRows * nCols];
+            row = col = 0;
+        }
+        if (nCols > 0 && col == nCols) {
+            row += 1;
+            col = 0;
+        }
+        mode = CELLS;
+        lineStart = true;
+    }
+}
@@ -1,11 +1,16 @@
 package amazed.maze;
 
+import java.awt.EventQueue;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.HashSet;
 import java.util.ListIterator;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Set;
 
 /**
@@ -25,9 +30,25 @@ import java.util.Set;
  * identifiers of all nodes adjacent to it.  Method
  * <code>hasGoal</code> determines if a given node contains a goal.
  * <p>
+ * Every node also has a <em>dense index</em> between <code>0</code>
+ * (inclusive) and <code>size()</code> (exclusive), which solvers can
+ * use to index primitive arrays; methods <code>indexOf</code> and
+ * <code>idOf</code> convert between identifiers and indices. Method
+ * <code>neighbors(int, int[])</code> and its dense counterpart
+ * <code>neighborIndices</code> fill a caller-supplied array instead
+ * of allocating a set, so that searches need not allocate per node.
+ * <p>
  * Finally, methods <code>spawn</code> and <code>move</code> animate
  * icons of players that move around the maze in its graphical
- * representation.
+ * representation; method <code>newMoveReader</code> lets observers
+ * follow those moves without inspecting the whole maze. Method
+ * <code>record</code> saves all player creations and moves to a trace
+ * file, whether or not they are animated, and method
+ * <code>loadTrace</code> loads such a file for replay.
+ * <p>
+ * Method <code>withEndpoints</code> returns a maze over the same
+ * cells, searched from another start node to other goals, so that
+ * one loaded maze can serve searches between any cells.
  *
  * @author  Carlo A. Furia
  */
@@ -35,6 +56,7 @@ import java.util.Set;
 public class Maze
 {
     private Board board;
+    private MazeGraph graph;
 
     Board getBoard()
     {
@@ -43,6 +65,17 @@ public class Maze
 
     private int delay = 500;
     private boolean animate = true;
+    // whether animation is recorded in `trace' instead of shown while solving
+    private boolean deferred = false;
+    private Trace trace;
+    // writer of the trace file being recorded; null if not recording
+    private volatile TraceFile.Recorder recorder;
+    // dense index of the start node
+    private int startIndex = 0;
+    // dense indices of the goals in increasing order, and their
+    // bitset; null if the goals are the hearts of the map
+    private int[] goalList;
+    private long[] goalSet;
 
 
     /**
@@ -50,38 +83,250 @@ public class Maze
      *
      * @param filename   the name of the text file containing the map
      */
-    Maze(String filename)
+    public Maze(String filename)
     {
-        board = new Board(filename);
+        this(new Board(filename));
+    }
+
+    /**
+     * Creates a maze by reading a map from file, reporting errors to
+     * the caller. Unlike the constructor, which ends the program when
+     * the map cannot be read, this suits long-running processes.
+     *
+     * @param filename   the name of the text or binary map file
+     * @return           a new maze with the map in <code>filename</code>
+     * @throws IOException   if the file cannot be read or is not a map
+     */
+    public static Maze open(String filename)
+    throws IOException
+    {
+        return new Maze(Board.open(filename));
     }
 
     // initialize Maze wrapping given board
     Maze(Board board)
     {
         this.board = board;
+        this.graph = board.getGraph();
     }
 
-    void setDelay(int delay)
+    /**
+     * Sets the pause, in milliseconds, that every call to
+     * <code>move</code> takes, or the period between moves of a
+     * playback if animation is deferred. A non-positive delay also
+     * turns animation off.
+     *
+     * @param delay   milliseconds of pause per move
+     */
+    public void setDelay(int delay)
     {
         this.delay = delay;
         if (delay <= 0)
             setAnimate(false);
     }
 
-    void setAnimate(boolean animate)
+    /**
+     * Turns animation of players on or off. Without animation,
+     * <code>newPlayer</code> and <code>move</code> do nothing, and
+     * the maze can be searched by several solvers at the same time.
+     *
+     * @param animate   whether players are animated
+     */
+    public void setAnimate(boolean animate)
     {
         this.animate = animate;
     }
 
+    /**
+     * Turns deferred animation on or off. With deferred animation,
+     * <code>newPlayer</code> and <code>move</code> do not pause nor
+     * move icons, but only record the event in the trace returned by
+     * <code>getTrace</code>; a playback created by
+     * <code>newPlayback</code> shows the moves afterwards, or while
+     * the solver is still running, without slowing the solver down.
+     * Deferred animation has no effect if animation is off.
+     *
+     * @param deferred   whether animation is deferred
+     */
+    public void setDeferred(boolean deferred)
+    {
+        this.deferred = deferred;
+        if (deferred && trace == null)
+            trace = new Trace();
+    }
+
+    /**
+     * Returns the trace recorded with deferred animation.
+     *
+     * @return   the trace of this maze; <code>null</code> if animation
+     *           was never deferred
+     */
+    public Trace getTrace()
+    {
+        return trace;
+    }
+
+    /**
+     * Creates a playback of the trace of this maze, which replays one
+     * move every delay milliseconds, as set by <code>setDelay</code>.
+     * The playback is not started.
+     *
+     * @return   a new playback of the trace of this maze
+     * @throws IllegalStateException if animation was never deferred
+     */
+    public Playback newPlayback()
+    {
+        if (trace == null)
+            throw new IllegalStateException("animation is not deferred");
+        return newPlayback(trace);
+    }
+
+    /**
+     * Creates a playback of a given trace on this maze, which replays
+     * one move every delay milliseconds, as set by
+     * <code>setDelay</code>. The playback is not started.
+     *
+     * @param trace   a trace recorded on this maze or on a maze read
+     *                from the same map
+     * @return        a new playback of <code>trace</code>
+     */
+    public Playback newPlayback(Trace trace)
+    {
+        return new Playback(board, trace, delay);
+    }
+
+    /**
+     * Starts recording to a trace file every creation and move of a
+     * player, until <code>stopRecording</code> is called. Recording
+     * works whether or not animation is on: without animation,
+     * <code>newPlayer</code> still returns unique identifiers, and
+     * <code>move</code> records without pausing. Events are encoded
+     * and written by a background thread, so that recording takes
+     * little time in the calling threads.
+     *
+     * @param filename   the name of the trace file to write
+     * @throws IOException   if the file cannot be created
+     */
+    public void record(String filename)
+    throws IOException
+    {
+        stopRecording();
+        recorder = new TraceFile.Recorder(filename, board.getRows(), board.getCols());
+    }
+
+    /**
+     * Stops recording, and writes to the trace file all events
+     * recorded so far. Threads that still create or move players, such
+     * as tasks that outlive a search, do not corrupt the file, but
+     * their events may be lost. It does nothing if not recording.
+     *
+     * @throws IOException   if the trace file cannot be written
+     */
+    public void stopRecording()
+    throws IOException
+    {
+        TraceFile.Recorder stopped = recorder;
+        if (stopped == null)
+            return;
+        recorder = null;
+        stopped.close();
+    }
+
+    /**
+     * Loads a trace file written by <code>record</code>, on a maze
+     * read from the same map as this one.
+     *
+     * @param filename   the name of the trace file to read
+     * @return           a closed trace with all the events in the file,
+     *                   ordered by time
+     * @throws IOException   if the file cannot be read, is not a trace
+     *                       file, or was recorded on a maze of
+     *                       different size
+     */
+    public Trace loadTrace(String filename)
+    throws IOException
+    {
+        return TraceFile.read(filename, board.getRows(), board.getCols());
+    }
+
+    /**
+     * Opens a window that shows this maze and its animated players.
+     */
+    public void display()
+    {
+        EventQueue.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                MazeFrame frame = new MazeFrame(Maze.this);
+                frame.setVisible(true);
+            }
+        });
+    }
+
+    /**
+     * Draws a rectangular region of this maze and its players into an
+     * image, without opening a window.
+     *
+     * @param row    the top row of the region
+     * @param col    the leftmost column of the region
+     * @param rows   the number of rows of the region
+     * @param cols   the number of columns of the region
+     * @return       a new image of the region
+     */
+    public BufferedImage render(int row, int col, int rows, int cols)
+    {
+        MazePanel panel = new MazePanel(board);
+        int width = panel.getCellWidth(), height = panel.getCellHeight();
+        BufferedImage image = new BufferedImage(cols * width, rows * height,
+                                                BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.translate(-col * width, -row * height);
+        graphics.setClip(col * width, row * height, cols * width, rows * height);
+        panel.paintRegion(graphics);
+        graphics.dispose();
+        return image;
+    }
+
+    /**
+     * Returns a maze with the same cells as this one and the same node
+     * identifiers, whose start node and goals are the given cells.
+     * The returned maze is not animated, and can be searched while
+     * this maze is.
+     *
+     * @param start   the dense index of the start node
+     * @param goals   the dense indices of the goal nodes, in any order
+     * @return        a new maze searched from <code>start</code> to <code>goals</code>
+     * @throws IllegalArgumentException if an index is out of range
+     */
+    public Maze withEndpoints(int start, int[] goals)
+    {
+        int size = graph.size();
+        if (start < 0 || start >= size)
+            throw new IllegalArgumentException("no node with index " + start);
+        long[] set = new long[(size + 63) >>> 6];
+        for (int goal: goals) {
+            if (goal < 0 || goal >= size)
+                throw new IllegalArgumentException("no node with index " + goal);
+            set[goal >>> 6] |= 1L << goal;
+        }
+        Maze maze = new Maze(board);
+        maze.animate = false;
+        maze.startIndex = start;
+        maze.goalSet = set;
+        maze.goalList = Arrays.stream(goals).sorted().distinct().toArray();
+        return maze;
+    }
+
     /**
      * Returns the unique identifier of the start node, corresponding
-     * to the top-left cell in the maze.
+     * to the top-left cell in the maze unless set by
+     * <code>withEndpoints</code>.
      *
      * @return   the identifier of the unique start node
      */
     public int start()
     {
-        return board.getCell(0, 0).getId();
+        return graph.id(startIndex);
     }
 
     /**
@@ -96,16 +341,132 @@ public class Maze
      */
     public Set<Integer> neighbors(int id)
     {
+        int[] out = new int[4];
+        int n = neighbors(id, out);
         Set<Integer> neighbors = new HashSet<>(4);
-        Position position = board.getPosition(id);
-        for (Direction direction: Direction.values()) {
-            Position newPosition = board.move(position, direction);
-            if (newPosition != null)
-                neighbors.add(board.getCell(newPosition).getId());
-        }
+        for (int i = 0; i < n; i++)
+            neighbors.add(out[i]);
         return neighbors;
     }
 
+    /**
+     * Stores into <code>out</code> the identifiers of all nodes
+     * directly adjacent to a given node, and accessible from it, and
+     * returns their number. This is the allocation-free counterpart
+     * of <code>neighbors(int)</code>.
+     *
+     * @param id   the identifier of a node in the maze
+     * @param out  an array with room for at least four elements
+     * @return     the number of identifiers stored at the beginning of
+     *             <code>out</code>, from zero to four
+     */
+    public int neighbors(int id, int[] out)
+    {
+        int n = graph.neighbors(graph.index(id), out);
+        for (int i = 0; i < n; i++)
+            out[i] = graph.id(out[i]);
+        return n;
+    }
+
+    /**
+     * Returns the number of nodes in the maze, accessible or not.
+     * Dense indices range from <code>0</code> to <code>size() - 1</code>.
+     *
+     * @return   the number of nodes in the maze
+     */
+    public int size()
+    {
+        return graph.size();
+    }
+
+    /**
+     * Returns the dense index of a given node.
+     *
+     * @param id   the identifier of a node in the maze
+     * @return     the dense index of node <code>id</code>;
+     *             <code>-1</code> if there is no such node
+     */
+    public int indexOf(int id)
+    {
+        return graph.index(id);
+    }
+
+    /**
+     * Returns the identifier of the node with a given dense index.
+     *
+     * @param index   the dense index of a node in the maze
+     * @return        the identifier of the node with dense index <code>index</code>
+     */
+    public int idOf(int index)
+    {
+        return graph.id(index);
+    }
+
+    /**
+     * Stores into <code>out</code> the dense indices of all nodes
+     * directly adjacent to the node with dense index
+     * <code>index</code>, and accessible from it, and returns their
+     * number.
+     *
+     * @param index  the dense index of a node in the maze
+     * @param out    an array with room for at least four elements
+     * @return       the number of indices stored at the beginning of
+     *               <code>out</code>, from zero to four
+     */
+    public int neighborIndices(int index, int[] out)
+    {
+        return graph.neighbors(index, out);
+    }
+
+    /**
+     * Returns the row of the cell with a given dense index; the
+     * top-left cell is in row <code>0</code>.
+     *
+     * @param index   the dense index of a node in the maze
+     * @return        the row of the node with dense index <code>index</code>
+     */
+    public int rowOf(int index)
+    {
+        return graph.row(index);
+    }
+
+    /**
+     * Returns the column of the cell with a given dense index; the
+     * top-left cell is in column <code>0</code>.
+     *
+     * @param index   the dense index of a node in the maze
+     * @return        the column of the node with dense index <code>index</code>
+     */
+    public int colOf(int index)
+    {
+        return graph.col(index);
+    }
+
+    /**
+     * Returns the dense indices of all nodes that contain a goal,
+     * reachable or not, in increasing order.
+     *
+     * @return   a new array with the dense indices of all goals
+     */
+    public int[] goalIndices()
+    {
+        return (goalList != null ? goalList : graph.goals()).clone();
+    }
+
+    /**
+     * Tests whether the node with a given dense index contains a goal.
+     *
+     * @param index   the dense index of a node in the maze
+     * @return        <code>true</code> if the node with dense index
+     *                <code>index</code> is a goal; <code>false</code> otherwise
+     */
+    public boolean hasGoalAt(int index)
+    {
+        if (goalSet != null)
+            return (goalSet[index >>> 6] & (1L << index)) != 0;
+        return graph.isGoal(index);
+    }
+
     /**
      * Tests whether a given node contains a goal.
      *
@@ -115,7 +476,78 @@ public class Maze
      */
     public boolean hasGoal(int id)
     {
-        return board.getCell(id).isHeart();
+        int index = graph.index(id);
+        return index >= 0 && hasGoalAt(index);
+    }
+
+    /**
+     * Tests whether some goal can be reached from the start node. The
+     * connected components of the maze are labeled on the first call
+     * on any maze over the same map, so later calls take constant
+     * time for the goals of the map, and time linear in the number of
+     * goals for a maze returned by <code>withEndpoints</code>.
+     *
+     * @return   <code>true</code> if a path leads from the start node to
+     *           a goal; <code>false</code> otherwise
+     */
+    public boolean isGoalReachable()
+    {
+        ComponentIndex components = graph.components();
+        if (goalList == null)
+            return components.reachesGoal(startIndex);
+        int start = components.component(startIndex);
+        for (int goal: goalList)
+            if (components.component(goal) == start)
+                return true;
+        return false;
+    }
+
+    /**
+     * Returns the dense indices of the goals that can be reached from
+     * the start node, in increasing order.
+     *
+     * @return   a new array with the dense indices of the reachable goals
+     */
+    public int[] reachableGoalIndices()
+    {
+        ComponentIndex components = graph.components();
+        int start = components.component(startIndex);
+        return Arrays.stream(goalList != null ? goalList : graph.goals())
+            .filter(goal -> components.component(goal) == start)
+            .toArray();
+    }
+
+    /**
+     * Tests whether a path leads from one node to another, that is,
+     * whether they are in the same connected component of the maze.
+     *
+     * @param index1   the dense index of a node in the maze
+     * @param index2   the dense index of another node in the maze
+     * @return         <code>true</code> if the nodes are connected;
+     *                 <code>false</code> otherwise
+     */
+    public boolean areConnected(int index1, int index2)
+    {
+        ComponentIndex components = graph.components();
+        return components.component(index1) == components.component(index2);
+    }
+
+    /**
+     * Returns the junction graph of this maze: the component of the
+     * start node without its dead ends, with corridors contracted into
+     * edges between junctions, where the start node and every
+     * reachable goal are junctions. The graph is built on the first
+     * call on any maze over the same map, unless the endpoints were
+     * set by <code>withEndpoints</code>, in which case it is built on
+     * every call.
+     *
+     * @return   the junction graph from the start node to the goals
+     */
+    public JunctionGraph junctionGraph()
+    {
+        if (goalList == null)
+            return graph.junctions();
+        return new JunctionGraph(graph, startIndex, goalList);
     }
 
     /**
@@ -128,7 +560,7 @@ public class Maze
      *               nodes, and ends with a goal node;
      *               <code>false</code> otherwise
      */
-    boolean isValidPath(List<Integer> path)
+    public boolean isValidPath(List<Integer> path)
     {
         if (path.isEmpty())
             return false;
@@ -153,9 +585,22 @@ public class Maze
      */
     public int newPlayer(int id)
     {
-        if (!animate)
+        TraceFile.Recorder recorder = this.recorder;
+        if (!animate && recorder == null)
+            return 0;
+        int index = graph.index(id);
+        if (index < 0)
             return 0;
-        return board.newPlayer(id);
+        int playerId = board.newPlayerId();
+        if (recorder != null)
+            recorder.record(playerId, index, true);
+        if (animate) {
+            if (deferred)
+                trace.spawn(playerId, index);
+            else
+                board.spawn(playerId, graph.row(index), graph.col(index));
+        }
+        return playerId;
     }
 
     /**
@@ -175,15 +620,28 @@ public class Maze
      * Moves an existing animated player to a given node. This method
      * doesn't do anything if the player doesn't exist or the given
      * node is not accessible. The given node need not be adjacent to
-     * the player's current node.
+     * the player's current node. Unless animation is deferred, it
+     * pauses the calling thread for the current delay.
      *
      * @param playerId   the identifier of an existing player
      * @param id         a node in the maze where the player is moved
      */
     public void move(int playerId, int id)
     {
+        TraceFile.Recorder recorder = this.recorder;
+        if (recorder != null) {
+            int index = graph.index(id);
+            if (index >= 0)
+                recorder.record(playerId, index, false);
+        }
         if (!animate)
             return;
+        if (deferred) {
+            int index = graph.index(id);
+            if (index >= 0)
+                trace.move(playerId, index);
+            return;
+        }
         Player player = board.getPlayer(playerId);
         try {
             Thread.sleep(delay);
@@ -194,6 +652,19 @@ public class Maze
             player.move(id);
     }
 
+    /**
+     * Returns a new reader of the moves of the animated players,
+     * which delivers every player creation, move and removal that
+     * happens after this call. Cells are identified by their dense
+     * index.
+     *
+     * @return   a new reader of the move feed of this maze
+     */
+    public MoveFeed.Reader newMoveReader()
+    {
+        return board.getMoves().newReader();
+    }
+
     /**
      * Highlights on the maze all nodes that can be highlighted in path.
      *
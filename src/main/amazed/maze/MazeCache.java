@@ -0,0 +1,245 @@
+package amazed.maze;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+
+/**
+ * Cache of maze topologies read from map files, shared by all
+ * threads of a process.
+ * <p>
+ * The cache keeps the immutable part of a maze: its cells, links,
+ * goals and node identifiers. Every call to <code>get</code> returns
+ * a new <code>Maze</code> over the cached topology, with a board,
+ * players, animation settings and trace of its own, so one cached map
+ * serves any number of concurrent searches. Mazes returned for the
+ * same cached map share node identifiers.
+ * <p>
+ * Entries are keyed by the real path of the map file, and remember
+ * its size and modification time: a map file changed since it was
+ * cached is read again. The cache bounds the total weight of its
+ * entries, which is the approximate number of bytes each topology
+ * holds, and evicts the least recently used entries when a new one
+ * would exceed it; a single topology heavier than the bound is
+ * returned but not cached. A topology grows when the junction graph
+ * of its map is first built; its entry is then weighed again, and
+ * entries are evicted as needed, the grown one included if it alone
+ * exceeds the bound. The numbers of hits, misses and evictions
+ * are counted from the creation of the cache.
+ * <p>
+ * All methods are thread-safe. Maps are read outside the lock, so a
+ * slow read does not hold up hits on other maps; two threads that
+ * miss the same map at the same time both read it, and one topology
+ * is kept.
+ */
+public final class MazeCache
+{
+    // default bound of the shared cache, as a fraction of the heap
+    private static final int SHARED_HEAP_FRACTION = 4;
+
+    private static final MazeCache SHARED =
+        new MazeCache(Runtime.getRuntime().maxMemory() / SHARED_HEAP_FRACTION);
+
+    private final long maxWeight;
+    // least recently used first; guarded by this
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    // cached topology of one map file, as of its size and modification time
+    private static final class Entry
+    {
+        final MazeGraph graph;
+        final long size;
+        final long modified;
+        // graph.weight() when last counted in the cache
+        long weight;
+
+        Entry(MazeGraph graph, long size, long modified)
+        {
+            this.graph = graph;
+            this.size = size;
+            this.modified = modified;
+            this.weight = graph.weight();
+        }
+    }
+
+    /**
+     * Creates an empty cache whose entries weigh at most
+     * <code>maxWeight</code> bytes in total.
+     *
+     * @param maxWeight   the bound on the total weight of the entries
+     */
+    public MazeCache(long maxWeight)
+    {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Returns the cache shared by the whole process, bounded by a
+     * quarter of the maximum heap size.
+     *
+     * @return   the shared cache
+     */
+    public static MazeCache shared()
+    {
+        return SHARED;
+    }
+
+    /**
+     * Returns a new maze over the map in file <code>filename</code>,
+     * reading the file only if its topology is not cached, or the
+     * file changed since it was cached.
+     *
+     * @param filename   the name of a text or binary map file
+     * @return           a new maze with players and animation of its own
+     * @throws IOException   if the file cannot be read or is not a map
+     */
+    public Maze get(String filename)
+    throws IOException
+    {
+        Path path = Paths.get(filename).toRealPath();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.size == size && entry.modified == modified) {
+                hits += 1;
+                return new Maze(new Board(entry.graph));
+            }
+            misses += 1;
+        }
+        Entry entry = new Entry(Board.readGraph(path.toString()), size, modified);
+        synchronized (this) {
+            Entry cached = entries.get(path);
+            if (cached != null && cached.size == size && cached.modified == modified)
+                entry = cached;
+            else
+                put(path, entry);
+        }
+        return new Maze(new Board(entry.graph));
+    }
+
+    // caches `entry' for `path', evicting as needed; caller holds the lock
+    private void put(Path path, Entry entry)
+    {
+        Entry old = entries.remove(path);
+        if (old != null)
+            weight -= old.weight;
+        if (entry.weight > maxWeight)
+            return;
+        entries.put(path, entry);
+        weight += entry.weight;
+        entry.graph.setWeightListener(() -> reweigh(path, entry));
+        trim();
+    }
+
+    // counts the grown weight of `entry', if it is still cached for `path'
+    private synchronized void reweigh(Path path, Entry entry)
+    {
+        if (entries.get(path) != entry)
+            return;
+        long grown = entry.graph.weight();
+        weight += grown - entry.weight;
+        entry.weight = grown;
+        trim();
+    }
+
+    // evicts least recently used entries until the total weight is
+    // within the bound; caller holds the lock
+    private void trim()
+    {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            weight -= iterator.next().weight;
+            iterator.remove();
+            evictions += 1;
+        }
+    }
+
+    /**
+     * Removes all entries from the cache; the counters are kept.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * Returns the number of calls to <code>get</code> that found the
+     * map cached and up to date.
+     *
+     * @return   the number of hits
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Returns the number of calls to <code>get</code> that read the
+     * map file.
+     *
+     * @return   the number of misses
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Returns the number of entries removed to make room for others.
+     *
+     * @return   the number of evictions
+     */
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * Returns the number of cached topologies.
+     *
+     * @return   the number of entries
+     */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total weight of the cached topologies.
+     *
+     * @return   approximate bytes held by the entries
+     */
+    public synchronized long getWeight()
+    {
+        return weight;
+    }
+
+    /**
+     * Returns the bound on the total weight of the entries.
+     *
+     * @return   the maximum weight, in bytes
+     */
+    public long getMaxWeight()
+    {
+        return maxWeight;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "MazeCache[" + entries.size() + " entries, " + weight + "/" + maxWeight
+            + " bytes, " + hits + " hits, " + misses + " misses, " + evictions + " evictions]";
+    }
+}
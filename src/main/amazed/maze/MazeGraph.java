@@ -0,0 +1,289 @@
+package amazed.maze;
+
+
+/**
+ * Read-only graph view of a board, indexed by dense node index.
+ * <p>
+ * The cell at <code>row, col</code> has dense index
+ * <code>row * cols + col</code>. For every cell, a 4-bit mask records
+ * which of its four neighbors are accessible (bit
+ * <code>1 &lt;&lt; direction.ordinal()</code>); two masks are packed
+ * in each byte. The mapping between dense indices and the random
+ * node identifiers handed out to clients is an
+ * <code>IdPermutation</code>, so neighbor lookups neither box nor
+ * allocate, and identifiers take no memory.
+ * <p>
+ * A graph over a memory-mapped <code>BinaryMap</code> keeps no
+ * per-cell arrays of its own on the heap: neighbor masks and goals are
+ * computed from the mapped tiles on each lookup. Its connected
+ * components and junctions, once built, are on the heap for mapped
+ * maps too.
+ */
+final class MazeGraph
+{
+    private static final byte EMPTY = (byte) Tile.EMPTY.ordinal();
+    private static final byte HEART = (byte) Tile.HEART.ordinal();
+
+    private final int rows;
+    private final int cols;
+    private final int size;
+
+    // tile ordinal of every cell, in row-major order; null if mapped
+    private final byte[] tiles;
+    // source of the tiles if mapped, otherwise null
+    private final BinaryMap mapped;
+    // two 4-bit neighbor masks per byte: even index in the low nibble;
+    // null if mapped
+    private final byte[] links;
+    // bitset of dense indices of cells with a goal; null if mapped
+    private final long[] goals;
+    // (node id + size) <--> dense index, over twice as many ids as nodes
+    private final IdPermutation ids;
+    // dense indices of all goals, in increasing order
+    private final int[] goalIndices;
+    // connected components, labeled on first use
+    private volatile ComponentIndex components;
+    // junctions from the top-left cell to the goals, built on first use
+    private volatile JunctionGraph junctions;
+    // run once the junctions are built, or null
+    private volatile Runnable weightListener;
+
+    /**
+     * Creates the graph of a board with the given tile ordinals, in
+     * row-major order.
+     */
+    MazeGraph(byte[] tiles, int rows, int cols)
+    {
+        this.rows = rows;
+        this.cols = cols;
+        this.size = rows * cols;
+        this.tiles = tiles;
+        this.mapped = null;
+        links = new byte[(size + 1) / 2];
+        goals = new long[(size + 63) >>> 6];
+        ids = new IdPermutation(2L * size);
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                int index = row * cols + col;
+                if (tiles[index] == HEART)
+                    goals[index >>> 6] |= 1L << index;
+                // inaccessible cells are isolated
+                if (!isAccessible(tiles[index]))
+                    continue;
+                int mask = 0;
+                if (row > 0 && isAccessible(tiles[index - cols]))
+                    mask |= 1 << Direction.NORTH.ordinal();
+                if (row < rows - 1 && isAccessible(tiles[index + cols]))
+                    mask |= 1 << Direction.SOUTH.ordinal();
+                if (col > 0 && isAccessible(tiles[index - 1]))
+                    mask |= 1 << Direction.WEST.ordinal();
+                if (col < cols - 1 && isAccessible(tiles[index + 1]))
+                    mask |= 1 << Direction.EAST.ordinal();
+                links[index >>> 1] |= (byte) (mask << ((index & 1) << 2));
+            }
+        }
+        goalIndices = collect(goals);
+    }
+
+    /**
+     * Creates the graph of a memory-mapped binary map.
+     */
+    MazeGraph(BinaryMap map)
+    {
+        this.rows = map.getRows();
+        this.cols = map.getCols();
+        this.size = rows * cols;
+        this.tiles = null;
+        this.mapped = map;
+        links = null;
+        goals = null;
+        ids = new IdPermutation(2L * size);
+        goalIndices = map.getHearts();
+    }
+
+    private static boolean isAccessible(byte tile)
+    {
+        return tile == EMPTY || tile == HEART;
+    }
+
+    // indices of the bits set in `bits', in increasing order
+    private static int[] collect(long[] bits)
+    {
+        int count = 0;
+        for (long word: bits)
+            count += Long.bitCount(word);
+        int[] result = new int[count];
+        int n = 0;
+        for (int w = 0; w < bits.length; w++)
+            for (long word = bits[w]; word != 0; word &= word - 1)
+                result[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+        return result;
+    }
+
+    // approximate bytes of memory held by this graph: its arrays on
+    // the heap, or the mapped tiles of a binary map, its components,
+    // and its junctions once built; the weight grows when they are
+    long weight()
+    {
+        long bytes = 64 + 4L * goalIndices.length + ComponentIndex.weight(size);
+        JunctionGraph built = junctions;
+        if (built != null)
+            bytes += built.weight();
+        if (mapped != null)
+            return bytes + ((long) size + 3) / 4;
+        return bytes + tiles.length + links.length + 8L * goals.length;
+    }
+
+    int getRows()
+    {
+        return rows;
+    }
+
+    int getCols()
+    {
+        return cols;
+    }
+
+    // number of nodes (accessible or not) in the graph
+    int size()
+    {
+        return size;
+    }
+
+    int id(int index)
+    {
+        return (int) (ids.forward(index) - size);
+    }
+
+    // dense index of node `id', or -1 if there is no such node
+    int index(int id)
+    {
+        long slot = (long) id + size;
+        if (slot < 0 || slot >= 2L * size)
+            return -1;
+        long index = ids.inverse(slot);
+        return index < size ? (int) index : -1;
+    }
+
+    int row(int index)
+    {
+        return index / cols;
+    }
+
+    int col(int index)
+    {
+        return index % cols;
+    }
+
+    // dense indices of all goals; callers must not modify the result
+    int[] goals()
+    {
+        return goalIndices;
+    }
+
+    boolean isGoal(int index)
+    {
+        if (goals == null)
+            return mapped.tile(index) == HEART;
+        return (goals[index >>> 6] & (1L << index)) != 0;
+    }
+
+    // tile ordinal of the cell with dense index `index'
+    byte tile(int index)
+    {
+        return tiles != null ? tiles[index] : mapped.tile(index);
+    }
+
+    // 4-bit mask of the accessible neighbors of `index'
+    int links(int index)
+    {
+        if (links == null)
+            return mappedLinks(index);
+        return (links[index >>> 1] >>> ((index & 1) << 2)) & 0xF;
+    }
+
+    private int mappedLinks(int index)
+    {
+        if (!isAccessible(mapped.tile(index)))
+            return 0;
+        int row = index / cols, col = index - row * cols;
+        int mask = 0;
+        if (row > 0 && isAccessible(mapped.tile(index - cols)))
+            mask |= 1 << Direction.NORTH.ordinal();
+        if (row < rows - 1 && isAccessible(mapped.tile(index + cols)))
+            mask |= 1 << Direction.SOUTH.ordinal();
+        if (col > 0 && isAccessible(mapped.tile(index - 1)))
+            mask |= 1 << Direction.WEST.ordinal();
+        if (col < cols - 1 && isAccessible(mapped.tile(index + 1)))
+            mask |= 1 << Direction.EAST.ordinal();
+        return mask;
+    }
+
+    /**
+     * Stores into <code>out</code> the dense indices of the accessible
+     * neighbors of <code>index</code>, and returns how many there are.
+     * <code>out</code> must have room for at least four elements.
+     */
+    int neighbors(int index, int[] out)
+    {
+        int mask = links(index);
+        int n = 0;
+        if ((mask & (1 << Direction.NORTH.ordinal())) != 0)
+            out[n++] = index - cols;
+        if ((mask & (1 << Direction.SOUTH.ordinal())) != 0)
+            out[n++] = index + cols;
+        if ((mask & (1 << Direction.WEST.ordinal())) != 0)
+            out[n++] = index - 1;
+        if ((mask & (1 << Direction.EAST.ordinal())) != 0)
+            out[n++] = index + 1;
+        return n;
+    }
+
+    // number of accessible neighbors of `index'
+    int degree(int index)
+    {
+        return Integer.bitCount(links(index));
+    }
+
+    // connected components of the graph, labeled by the first caller
+    ComponentIndex components()
+    {
+        ComponentIndex result = components;
+        if (result == null) {
+            synchronized (this) {
+                result = components;
+                if (result == null)
+                    components = result = new ComponentIndex(this);
+            }
+        }
+        return result;
+    }
+
+    // junctions of the component of the top-left cell, with the goals
+    // of the graph, built by the first caller, which then runs the
+    // weight listener
+    JunctionGraph junctions()
+    {
+        JunctionGraph result = junctions;
+        if (result == null) {
+            boolean built = false;
+            synchronized (this) {
+                result = junctions;
+                if (result == null) {
+                    junctions = result = new JunctionGraph(this, 0, goalIndices);
+                    built = true;
+                }
+            }
+            Runnable listener = weightListener;
+            if (built && listener != null)
+                listener.run();
+        }
+        return result;
+    }
+
+    // sets `listener' to run when the weight of this graph grows
+    void setWeightListener(Runnable listener)
+    {
+        weightListener = listener;
+    }
+}
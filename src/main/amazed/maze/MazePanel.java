@@ -0,0 +1,159 @@
+package amazed.maze;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.Rectangle;
+import javax.swing.JComponent;
+
+
+/**
+ * Component that paints a board cell by cell, straight from the
+ * board's cells.
+ * <p>
+ * Painting only draws the cells that intersect the clip, so its cost
+ * is bounded by the size of the visible region and not by the size
+ * of the board. Method <code>refresh</code> requests a repaint of only
+ * the cells whose content changed since the previous refresh: the old
+ * and new cells of every move drained from the board's move feed, or
+ * the whole board after a path has been marked or moves were lost.
+ */
+class MazePanel extends JComponent
+    implements MoveFeed.Listener
+{
+    private static final Font COUNT_FONT = new Font(null, Font.BOLD, 16);
+
+    private final Board board;
+    private final int cellWidth;
+    private final int cellHeight;
+
+    // moves not yet repainted
+    private final MoveFeed.Reader moves;
+    // number of paths marked on the board when last painted
+    private int marks;
+
+    MazePanel(Board board)
+    {
+        this.board = board;
+        this.cellWidth = board.getWidth() / board.getCols();
+        this.cellHeight = board.getHeight() / board.getRows();
+        this.marks = board.getMarks();
+        this.moves = board.getMoves().newReader();
+        setOpaque(true);
+        setDoubleBuffered(true);
+    }
+
+    // preferred size of the panel, equal to the size of the whole board
+    @Override
+    public Dimension getPreferredSize()
+    {
+        return new Dimension(board.getWidth(), board.getHeight());
+    }
+
+    private Color visibleTextColor(Player player)
+    {
+        switch (player.getId()) {
+        case 1:
+            return Color.WHITE;
+        case 2:
+            return Color.RED;
+        case 3:
+        case 4:
+            return Color.BLACK;
+        default:
+            return Color.RED;
+        }
+    }
+
+    /**
+     * Requests a repaint of the cells that changed since the previous
+     * call. Takes time proportional to the number of moves since the
+     * previous call.
+     */
+    void refresh()
+    {
+        int currentMarks = board.getMarks();
+        if (currentMarks != marks) {
+            marks = currentMarks;
+            repaint();
+        }
+        moves.drain(this);
+    }
+
+    @Override
+    public void moved(int playerId, int from, int to)
+    {
+        repaintCell(from);
+        repaintCell(to);
+    }
+
+    @Override
+    public void lost(long count)
+    {
+        repaint();
+    }
+
+    private void repaintCell(int index)
+    {
+        if (index < 0)
+            return;
+        int row = index / board.getCols(), col = index % board.getCols();
+        repaint(col * cellWidth, row * cellHeight, cellWidth, cellHeight);
+    }
+
+    int getCellWidth()
+    {
+        return cellWidth;
+    }
+
+    int getCellHeight()
+    {
+        return cellHeight;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g)
+    {
+        paintRegion(g);
+    }
+
+    // paints the cells that intersect the clip of `g', or all cells
+    // if `g' has no clip
+    void paintRegion(Graphics g)
+    {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null)
+            clip = new Rectangle(0, 0, board.getWidth(), board.getHeight());
+        int fromRow = Math.max(0, clip.y / cellHeight);
+        int fromCol = Math.max(0, clip.x / cellWidth);
+        int toRow = Math.min(board.getRows(), (clip.y + clip.height + cellHeight - 1) / cellHeight);
+        int toCol = Math.min(board.getCols(), (clip.x + clip.width + cellWidth - 1) / cellWidth);
+        g.setFont(COUNT_FONT);
+        for (int row = fromRow; row < toRow; row++)
+            for (int col = fromCol; col < toCol; col++)
+                paintCell(g, board.getCell(row, col), col * cellWidth, row * cellHeight);
+    }
+
+    private void paintCell(Graphics g, Cell cell, int x, int y)
+    {
+        Image image = cell.getImage();
+        if (image != null)
+            g.drawImage(image, x, y, cellWidth, cellHeight, null);
+        else {
+            g.setColor(cell.isAccessible() ? Color.WHITE : Color.DARK_GRAY);
+            g.fillRect(x, y, cellWidth, cellHeight);
+        }
+        Player[] players = cell.getPlayers();
+        if (players.length > 1) {
+            String count = Integer.toString(players.length);
+            FontMetrics metrics = g.getFontMetrics();
+            g.setColor(visibleTextColor(players[0]));
+            g.drawString(count,
+                         x + cellWidth - metrics.stringWidth(count) - 2,
+                         y + cellHeight - metrics.getDescent() - 2);
+        }
+    }
+}
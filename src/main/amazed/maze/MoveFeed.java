@@ -0,0 +1,179 @@
+package amazed.maze;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Bounded, lock-free feed of the changes of position of the players
+ * on a board.
+ * <p>
+ * Every change is an event with the identifier of a player, the dense
+ * index of the cell it left, and the dense index of the cell it
+ * entered; a player that enters the board has no old cell, and a
+ * player that leaves it has no new cell, denoted by <code>-1</code>.
+ * Events are numbered in the order they are published, and stored in
+ * a ring of fixed capacity: publishing never blocks and never waits
+ * for readers, and it overwrites the oldest event once the ring is
+ * full.
+ * <p>
+ * Any number of readers, created by <code>newReader</code>, drain the
+ * events in batches, each from its own position in the feed, so that
+ * observing a board costs time proportional to the number of moves
+ * rather than to the number of cells. A reader that falls more than
+ * the capacity behind loses the overwritten events, and is told how
+ * many it lost so that it can resynchronize by other means.
+ */
+public final class MoveFeed
+{
+    /**
+     * Receiver of the events drained from a feed.
+     */
+    public interface Listener
+    {
+        /**
+         * Called for every event, in the order the events were
+         * published.
+         *
+         * @param playerId   the identifier of the player that moved
+         * @param from       dense index of the cell the player left,
+         *                   or <code>-1</code> if it entered the board
+         * @param to         dense index of the cell the player entered,
+         *                   or <code>-1</code> if it left the board
+         */
+        void moved(int playerId, int from, int to);
+
+        /**
+         * Called when events were overwritten before the reader could
+         * drain them; the events that follow are delivered normally.
+         *
+         * @param count   the number of events lost
+         */
+        default void lost(long count)
+        {
+        }
+    }
+
+    /**
+     * Position of one reader in a feed. A reader is not thread-safe:
+     * each reader must be drained by one thread at a time.
+     */
+    public final class Reader
+    {
+        // sequence number of the next event to deliver
+        private long next;
+
+        private Reader(long next)
+        {
+            this.next = next;
+        }
+
+        /**
+         * Delivers to <code>listener</code> up to <code>max</code>
+         * events published since the previous call, and returns how
+         * many it delivered. It stops at the first event whose
+         * publication is still in progress.
+         *
+         * @param listener   the receiver of the events
+         * @param max        the maximum number of events to deliver
+         * @return           the number of events delivered
+         */
+        public int drain(Listener listener, int max)
+        {
+            int delivered = 0;
+            while (delivered < max) {
+                Event event = slots.get((int) next & mask);
+                if (event == null || event.sequence < next)
+                    break;
+                if (event.sequence > next) {
+                    // overwritten: skip to the oldest event still in the ring
+                    long oldest = Math.max(next, published.get() - slots.length());
+                    listener.lost(oldest - next);
+                    next = oldest;
+                    continue;
+                }
+                listener.moved(event.playerId, event.from, event.to);
+                next += 1;
+                delivered += 1;
+            }
+            return delivered;
+        }
+
+        /**
+         * Delivers to <code>listener</code> all events published since
+         * the previous call, and returns how many it delivered.
+         *
+         * @param listener   the receiver of the events
+         * @return           the number of events delivered
+         */
+        public int drain(Listener listener)
+        {
+            return drain(listener, Integer.MAX_VALUE);
+        }
+    }
+
+    private static final class Event
+    {
+        final long sequence;
+        final int playerId;
+        final int from;
+        final int to;
+
+        Event(long sequence, int playerId, int from, int to)
+        {
+            this.sequence = sequence;
+            this.playerId = playerId;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final AtomicReferenceArray<Event> slots;
+    private final int mask;
+    // number of events claimed by publishers so far
+    private final AtomicLong published = new AtomicLong();
+
+    /**
+     * Creates an empty feed that keeps at least the last
+     * <code>capacity</code> events.
+     *
+     * @param capacity   the minimum number of events kept; rounded up
+     *                   to a power of two
+     */
+    MoveFeed(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Publishes the event that player <code>playerId</code> moved from
+     * cell <code>from</code> to cell <code>to</code>.
+     */
+    void publish(int playerId, int from, int to)
+    {
+        long sequence = published.getAndIncrement();
+        Event event = new Event(sequence, playerId, from, to);
+        int slot = (int) sequence & mask;
+        // a slower publisher lapped by a faster one must not overwrite
+        // a newer event with an older one
+        Event old;
+        do {
+            old = slots.get(slot);
+            if (old != null && old.sequence > sequence)
+                return;
+        } while (!slots.compareAndSet(slot, old, event));
+    }
+
+    /**
+     * Returns a new reader that delivers the events published after
+     * this call.
+     *
+     * @return   a new reader of this feed
+     */
+    public Reader newReader()
+    {
+        return new Reader(published.get());
+    }
+}
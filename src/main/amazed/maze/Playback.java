@@ -0,0 +1,212 @@
+package amazed.maze;
+
+
+/**
+ * Replays the trace of a maze on its board, one move per animation
+ * period, in a thread of its own.
+ * <p>
+ * Player creations are replayed as soon as they are reached, and
+ * every move is replayed one period after the previous one, as
+ * <code>Maze.move</code> does when it pauses the solver; the solver
+ * that records the trace, however, never waits for the playback.
+ * While the trace is still being recorded, the playback follows it
+ * and waits for new events when it catches up. The playback can be
+ * sped up or slowed down with <code>setSpeed</code>, paused and
+ * resumed, and moved to any event of the trace with
+ * <code>seek</code>.
+ */
+public final class Playback
+{
+    // milliseconds between checks for new events when the playback
+    // has caught up with a trace still being recorded
+    private static final long POLL_MILLIS = 25;
+
+    private final Board board;
+    private final Trace trace;
+    private final MazeGraph graph;
+    private final long period;
+
+    private double speed = 1.0;
+    private boolean paused;
+    private boolean stopped;
+    // number of events replayed on the board
+    private int position;
+    // event requested by seek, or -1 if none is pending
+    private int target = -1;
+    private Thread thread;
+
+    // playback of `trace' on `board', with `period' milliseconds between moves
+    Playback(Board board, Trace trace, int period)
+    {
+        this.board = board;
+        this.trace = trace;
+        this.graph = board.getGraph();
+        this.period = Math.max(0, period) * 1_000_000L;
+    }
+
+    /**
+     * Starts replaying in a new daemon thread.
+     */
+    public synchronized void start()
+    {
+        if (thread != null)
+            return;
+        thread = new Thread(this::play, "playback");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops replaying for good; players stay where they are.
+     */
+    public synchronized void stop()
+    {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Sets the playback speed, relative to the animation period: at
+     * speed 2 moves are replayed twice as often, at speed 0.5 half as
+     * often.
+     *
+     * @param speed   a positive factor
+     * @throws IllegalArgumentException if <code>speed</code> is not positive
+     */
+    public synchronized void setSpeed(double speed)
+    {
+        if (!(speed > 0))
+            throw new IllegalArgumentException("speed must be positive: " + speed);
+        this.speed = speed;
+        notifyAll();
+    }
+
+    /**
+     * Pauses replaying until <code>resume</code> is called.
+     */
+    public synchronized void pause()
+    {
+        paused = true;
+        notifyAll();
+    }
+
+    /**
+     * Resumes replaying after <code>pause</code>.
+     */
+    public synchronized void resume()
+    {
+        paused = false;
+        notifyAll();
+    }
+
+    /**
+     * Moves the playback to event <code>index</code>: afterwards the
+     * board shows the players as they were just before that event was
+     * recorded, and replay continues from there. Seeking backwards
+     * replays the trace from its beginning without pauses.
+     *
+     * @param index   the number of an event in the trace; clamped to the
+     *                events recorded so far
+     */
+    public synchronized void seek(int index)
+    {
+        target = Math.max(0, Math.min(index, trace.size()));
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of events replayed so far.
+     *
+     * @return   the number of the next event to replay
+     */
+    public synchronized int position()
+    {
+        return position;
+    }
+
+    /**
+     * Waits until the trace is closed and all its events have been
+     * replayed, or the playback is stopped.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void awaitEnd()
+    throws InterruptedException
+    {
+        while (!stopped && !isAtEnd())
+            wait();
+    }
+
+    private boolean isAtEnd()
+    {
+        return target < 0 && trace.isClosed() && position >= trace.size();
+    }
+
+    private synchronized void play()
+    {
+        // time at which the last move was replayed
+        long last = System.nanoTime();
+        try {
+            while (!stopped) {
+                if (target >= 0) {
+                    jump(target);
+                    target = -1;
+                    last = System.nanoTime();
+                } else if (paused) {
+                    wait();
+                    last = System.nanoTime();
+                } else if (position >= trace.size()) {
+                    if (trace.isClosed()) {
+                        notifyAll();
+                        wait();
+                    } else
+                        wait(POLL_MILLIS);
+                } else if (trace.isSpawnAt(position)) {
+                    replay(position++);
+                } else {
+                    long now = System.nanoTime();
+                    long step = (long) (period / speed);
+                    long due = last + step;
+                    if (now < due) {
+                        // woken early by any change of state, which is checked again
+                        long remaining = due - now;
+                        wait(remaining / 1_000_000, (int) (remaining % 1_000_000));
+                    } else {
+                        replay(position++);
+                        // a playback that falls behind does not catch up in a burst
+                        last = now - due > step ? now : due;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            System.out.println("Interrupted!");
+        }
+        notifyAll();
+    }
+
+    // replays events from the current position, or from the beginning,
+    // up to event `index' excluded, without pauses
+    private void jump(int index)
+    {
+        if (index < position) {
+            board.deregisterAll();
+            position = 0;
+        }
+        while (position < index)
+            replay(position++);
+    }
+
+    private void replay(int event)
+    {
+        int playerId = trace.playerAt(event);
+        int cell = trace.cellAt(event);
+        int row = graph.row(cell), col = graph.col(cell);
+        if (trace.isSpawnAt(event))
+            board.spawn(playerId, row, col);
+        else {
+            Player player = board.getPlayer(playerId);
+            if (player != null && board.isAccessible(row, col))
+                board.move(player, row, col);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package amazed.maze;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Timestamped record of the creations and moves of the players of a
+ * maze.
+ * <p>
+ * When a maze defers animation, <code>Maze.newPlayer</code> and
+ * <code>Maze.move</code> append events to the maze's trace instead of
+ * pausing and moving icons, so solvers run at full speed; a
+ * <code>Playback</code> then replays the trace on the board at the
+ * animation period. Every event has the time, in nanoseconds since the
+ * trace was created, at which it was recorded, the identifier of a
+ * player, and the dense index of the cell where the player was
+ * created or moved. Events are numbered from <code>0</code> in the
+ * order they were recorded. Trace files written by
+ * <code>Maze.record</code> are loaded into traces by
+ * <code>Maze.loadTrace</code>. A trace is closed when no more events
+ * will be appended to it; events recorded after closing, for example
+ * by tasks that outlive a search, are discarded.
+ * <p>
+ * All methods are thread-safe, and appending takes no lock: a thread
+ * reserves the number of its event with one atomic increment, writes
+ * the event into a segment of preallocated arrays, and publishes it
+ * with an ordered write of its time. Segments double in size, so
+ * arrays are never copied while other threads write to them. An event
+ * is visible once it and all events before it are published, so
+ * readers see a prefix of the trace that only grows.
+ */
+public final class Trace
+{
+    // events in the first segment; segment k holds FIRST << k events
+    private static final int FIRST = 1024;
+    private static final int FIRST_SHIFT = Integer.numberOfTrailingZeros(FIRST);
+    // enough segments for every non-negative int event number
+    private static final int SEGMENTS = 32 - FIRST_SHIFT;
+    // set in `reserved' when the trace is closed
+    private static final int CLOSED = Integer.MIN_VALUE;
+
+    private final long origin = System.nanoTime();
+
+    private final AtomicReferenceArray<Segment> segments = new AtomicReferenceArray<>(SEGMENTS);
+    // events reserved by appending threads, with CLOSED once closed
+    private final AtomicInteger reserved = new AtomicInteger();
+    // length of a prefix of published events, advanced by readers
+    private final AtomicInteger published = new AtomicInteger();
+
+    // events from FIRST << k - FIRST on, for segment k
+    private static final class Segment
+    {
+        // (time + 1) << 1 | spawn bit of every event; 0 until published
+        final AtomicLongArray stamps;
+        final int[] players;
+        final int[] cells;
+
+        Segment(int length)
+        {
+            stamps = new AtomicLongArray(length);
+            players = new int[length];
+            cells = new int[length];
+        }
+    }
+
+    Trace()
+    {
+    }
+
+    void spawn(int playerId, int cell)
+    {
+        append(System.nanoTime() - origin, playerId, cell, true);
+    }
+
+    void move(int playerId, int cell)
+    {
+        append(System.nanoTime() - origin, playerId, cell, false);
+    }
+
+    // append event recorded at `time' nanoseconds since the trace started
+    void append(long time, int playerId, int cell, boolean spawn)
+    {
+        int index = reserved.getAndIncrement();
+        // closed, or out of event numbers
+        if (index < 0)
+            return;
+        int slot = index + FIRST;
+        Segment segment = segment(31 - Integer.numberOfLeadingZeros(slot) - FIRST_SHIFT);
+        int offset = slot - Integer.highestOneBit(slot);
+        segment.players[offset] = playerId;
+        segment.cells[offset] = cell;
+        // publishes the plain writes above to readers of the stamp
+        segment.stamps.lazySet(offset, (time + 1) << 1 | (spawn ? 1 : 0));
+    }
+
+    // segment `k', allocated by the first thread that needs it
+    private Segment segment(int k)
+    {
+        Segment segment = segments.get(k);
+        if (segment == null) {
+            segments.compareAndSet(k, null, new Segment(FIRST << k));
+            segment = segments.get(k);
+        }
+        return segment;
+    }
+
+    // the stamp of event `index', or 0 if it is not published
+    private long stamp(int index)
+    {
+        int slot = index + FIRST;
+        Segment segment = segments.get(31 - Integer.numberOfLeadingZeros(slot) - FIRST_SHIFT);
+        return segment == null ? 0 : segment.stamps.get(slot - Integer.highestOneBit(slot));
+    }
+
+    // the segment and offset of visible event `index'
+    private Segment segmentOf(int index)
+    {
+        checkIndex(index);
+        int slot = index + FIRST;
+        return segments.get(31 - Integer.numberOfLeadingZeros(slot) - FIRST_SHIFT);
+    }
+
+    private static int offsetOf(int index)
+    {
+        int slot = index + FIRST;
+        return slot - Integer.highestOneBit(slot);
+    }
+
+    /**
+     * Closes this trace, so that no more events can be appended to it.
+     * Events whose numbers were reserved before closing are still
+     * published.
+     */
+    public void close()
+    {
+        reserved.getAndUpdate(n -> n | CLOSED);
+    }
+
+    /**
+     * Returns whether this trace is closed.
+     *
+     * @return   <code>true</code> if no more events can be appended
+     */
+    public boolean isClosed()
+    {
+        return reserved.get() < 0;
+    }
+
+    /**
+     * Returns the number of events recorded so far, that is, the
+     * length of the longest prefix of published events.
+     *
+     * @return   the number of events in this trace
+     */
+    public int size()
+    {
+        int limit = reserved.get() & ~CLOSED;
+        int size = published.get();
+        while (size < limit && stamp(size) != 0)
+            size += 1;
+        return published.accumulateAndGet(size, Math::max);
+    }
+
+    /**
+     * Returns the time at which an event was recorded.
+     *
+     * @param index   the number of an event in this trace
+     * @return        nanoseconds from the creation of the trace to event <code>index</code>
+     */
+    public long timeAt(int index)
+    {
+        return (segmentOf(index).stamps.get(offsetOf(index)) >>> 1) - 1;
+    }
+
+    /**
+     * Returns the identifier of the player of an event.
+     *
+     * @param index   the number of an event in this trace
+     * @return        the identifier of the player created or moved by event <code>index</code>
+     */
+    public int playerAt(int index)
+    {
+        return segmentOf(index).players[offsetOf(index)];
+    }
+
+    /**
+     * Returns the cell of an event.
+     *
+     * @param index   the number of an event in this trace
+     * @return        the dense index of the cell where event
+     *                <code>index</code> created or moved its player
+     */
+    public int cellAt(int index)
+    {
+        return segmentOf(index).cells[offsetOf(index)];
+    }
+
+    /**
+     * Returns whether an event creates a player.
+     *
+     * @param index   the number of an event in this trace
+     * @return        <code>true</code> if event <code>index</code> creates a
+     *                player; <code>false</code> if it moves one
+     */
+    public boolean isSpawnAt(int index)
+    {
+        return (segmentOf(index).stamps.get(offsetOf(index)) & 1) != 0;
+    }
+
+    // reading the published prefix first orders the reads of the
+    // event after the writes that published it
+    private void checkIndex(int index)
+    {
+        if (index < 0 || (index >= published.get() && index >= size()))
+            throw new IndexOutOfBoundsException("event " + index + " of " + size());
+    }
+}
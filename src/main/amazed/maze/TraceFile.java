@@ -0,0 +1,371 @@
+package amazed.maze;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Compact, append-only file format of traces.
+ * <p>
+ * A trace file starts with a header of big-endian 32-bit integers:
+ * the magic number <code>AMZT</code>, the format version, and the
+ * number of rows and columns of the maze. Blocks of events follow,
+ * each written by one recording thread with its events in the order
+ * they were recorded. A block is the number of events, then the time
+ * of the first event, then for every event the difference from the
+ * previous event of the block of its time, of its player identifier
+ * and of its dense cell index, all as variable-length integers of
+ * seven bits per byte; the player difference is zigzag-encoded and
+ * shifted left by one bit, whose lowest bit is set for events that
+ * create a player, and the cell difference is zigzag-encoded. Times
+ * are in nanoseconds since recording started.
+ * <p>
+ * Reading a trace file merges its blocks by time into a
+ * <code>Trace</code>.
+ */
+final class TraceFile
+{
+    private static final int MAGIC = 0x414D5A54;
+    private static final int VERSION = 1;
+    // events per block
+    private static final int BATCH = 1024;
+    // most bytes an event takes: three variable-length 64-bit integers
+    private static final int MAX_EVENT_SIZE = 3 * 10;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private TraceFile()
+    {
+    }
+
+    // events of one recording thread, up to BATCH
+    private static final class Batch
+    {
+        final long[] times = new long[BATCH];
+        final int[] players = new int[BATCH];
+        final int[] cells = new int[BATCH];
+        final boolean[] spawns = new boolean[BATCH];
+        // events written so far, published after each event so that
+        // close only writes events that are complete
+        volatile int count;
+    }
+
+    /**
+     * Writer of a trace file.
+     * <p>
+     * Recording threads append events to batches of their own, without
+     * locking or writing; full batches are handed to a writer thread,
+     * which encodes them and writes them to the file through a
+     * buffered channel. Recording blocks only if the writer falls many
+     * batches behind. Once the recorder is closed, events recorded by
+     * threads that outlive it are discarded.
+     */
+    static final class Recorder
+        implements Closeable
+    {
+        // full batches waiting to be written
+        private static final int PENDING = 64;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final long origin = System.nanoTime();
+
+        private final BlockingQueue<Batch> full = new ArrayBlockingQueue<>(PENDING);
+        private final ConcurrentLinkedQueue<Batch> free = new ConcurrentLinkedQueue<>();
+        // batches being filled, written by close
+        private final Set<Batch> filling = ConcurrentHashMap.newKeySet();
+        private final ThreadLocal<Batch> current = new ThreadLocal<>();
+
+        private final Thread writer;
+        private volatile boolean closing;
+        // first failure of the writer thread, rethrown by close
+        private volatile IOException failure;
+
+        // recorder writing to file `filename' events on a maze of nRows x nCols cells
+        Recorder(String filename, int nRows, int nCols)
+        throws IOException
+        {
+            channel = FileChannel.open(Paths.get(filename), StandardOpenOption.WRITE,
+                                       StandardOpenOption.CREATE,
+                                       StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(nRows).putInt(nCols);
+            writer = new Thread(this::drain, "trace-writer");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        /**
+         * Records that player <code>playerId</code> was created, if
+         * <code>spawn</code>, or moved to the cell with dense index
+         * <code>cell</code>.
+         */
+        void record(int playerId, int cell, boolean spawn)
+        {
+            if (closing)
+                return;
+            long time = System.nanoTime() - origin;
+            Batch batch = current.get();
+            if (batch == null)
+                batch = newBatch();
+            int i = batch.count;
+            batch.times[i] = time;
+            batch.players[i] = playerId;
+            batch.cells[i] = cell;
+            batch.spawns[i] = spawn;
+            batch.count = i + 1;
+            if (i + 1 == BATCH) {
+                filling.remove(batch);
+                current.remove();
+                try {
+                    // the writer stops taking batches once closing
+                    while (!full.offer(batch, 50, TimeUnit.MILLISECONDS))
+                        if (closing)
+                            return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private Batch newBatch()
+        {
+            Batch batch = free.poll();
+            if (batch == null)
+                batch = new Batch();
+            filling.add(batch);
+            current.set(batch);
+            return batch;
+        }
+
+        private void drain()
+        {
+            try {
+                while (!closing || !full.isEmpty()) {
+                    Batch batch = full.poll(50, TimeUnit.MILLISECONDS);
+                    if (batch == null)
+                        continue;
+                    // after a failure, batches are discarded so that
+                    // recording threads do not block on a dead writer
+                    if (failure == null) {
+                        try {
+                            write(batch);
+                        } catch (IOException e) {
+                            failure = e;
+                        }
+                    }
+                    batch.count = 0;
+                    free.add(batch);
+                }
+            } catch (InterruptedException e) {
+                System.out.println("Interrupted!");
+            }
+        }
+
+        private void write(Batch batch)
+        throws IOException
+        {
+            int count = batch.count;
+            if (count == 0)
+                return;
+            ensure(2 * 10);
+            putVarLong(buffer, count);
+            putVarLong(buffer, batch.times[0]);
+            long time = batch.times[0];
+            int player = 0, cell = 0;
+            for (int i = 0; i < count; i++) {
+                ensure(MAX_EVENT_SIZE);
+                putVarLong(buffer, batch.times[i] - time);
+                putVarLong(buffer, (zigzag(batch.players[i] - player) << 1) | (batch.spawns[i] ? 1 : 0));
+                putVarLong(buffer, zigzag(batch.cells[i] - cell));
+                time = batch.times[i];
+                player = batch.players[i];
+                cell = batch.cells[i];
+            }
+        }
+
+        // makes room for `bytes' bytes in `buffer'
+        private void ensure(int bytes)
+        throws IOException
+        {
+            if (buffer.remaining() < bytes)
+                flush();
+        }
+
+        private void flush()
+        throws IOException
+        {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        /**
+         * Writes all recorded events and closes the file. Events that
+         * threads record while or after closing may be lost, but do not
+         * corrupt the file.
+         */
+        @Override
+        public void close()
+        throws IOException
+        {
+            closing = true;
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                if (failure != null)
+                    throw failure;
+                for (Batch batch: filling)
+                    write(batch);
+                filling.clear();
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static long zigzag(int value)
+    {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static int unzigzag(long value)
+    {
+        int n = (int) value;
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long value)
+    {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long getVarLong(InputStream in)
+    throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0)
+                throw new EOFException();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("malformed variable-length integer");
+    }
+
+    /**
+     * Reads trace file <code>filename</code>, recorded on a maze of
+     * <code>nRows</code> rows and <code>nCols</code> columns, into a
+     * closed trace.
+     */
+    static Trace read(String filename, int nRows, int nCols)
+    throws IOException
+    {
+        long[] times = new long[BATCH];
+        int[] players = new int[BATCH];
+        int[] cells = new int[BATCH];
+        boolean[] spawns = new boolean[BATCH];
+        int size = 0;
+        try (InputStream file = Files.newInputStream(Paths.get(filename));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException(filename + " is not a trace file");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException("trace file " + filename + " has unsupported version " + version);
+            int rows = in.readInt(), cols = in.readInt();
+            if (rows != nRows || cols != nCols)
+                throw new IOException("trace file " + filename + " was recorded on a "
+                                      + rows + "x" + cols + " maze, not " + nRows + "x" + nCols);
+            long cellCount = (long) nRows * nCols;
+            in.mark(1);
+            while (in.read() >= 0) {
+                in.reset();
+                long count = getVarLong(in);
+                if (count <= 0 || count > Integer.MAX_VALUE - 8 - size)
+                    throw new IOException("trace file " + filename + " is corrupt");
+                if (size + count > times.length) {
+                    int length = (int) Math.min(Integer.MAX_VALUE - 8,
+                                                Math.max(size + count, 2L * times.length));
+                    times = Arrays.copyOf(times, length);
+                    players = Arrays.copyOf(players, length);
+                    cells = Arrays.copyOf(cells, length);
+                    spawns = Arrays.copyOf(spawns, length);
+                }
+                long time = getVarLong(in);
+                int player = 0, cell = 0;
+                for (long i = 0; i < count; i++) {
+                    time += getVarLong(in);
+                    long playerCode = getVarLong(in);
+                    player += unzigzag(playerCode >>> 1);
+                    cell += unzigzag(getVarLong(in));
+                    if (cell < 0 || cell >= cellCount)
+                        throw new IOException("trace file " + filename + " is corrupt");
+                    times[size] = time;
+                    players[size] = player;
+                    cells[size] = cell;
+                    spawns[size] = (playerCode & 1) != 0;
+                    size += 1;
+                }
+                in.mark(1);
+            }
+        } catch (EOFException e) {
+            throw new IOException("trace file " + filename + " is truncated");
+        }
+        Trace trace = new Trace();
+        for (int i: sortByTime(times, size))
+            trace.append(times[i], players[i], cells[i], spawns[i]);
+        trace.close();
+        return trace;
+    }
+
+    // indices from 0 to `size' - 1 sorted by `times', stably
+    private static int[] sortByTime(long[] times, int size)
+    {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        int[] other = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int low = 0; low < size; low += 2 * width) {
+                int mid = Math.min(low + width, size), high = Math.min(low + 2 * width, size);
+                int left = low, right = mid, out = low;
+                while (left < mid && right < high)
+                    other[out++] = times[order[right]] < times[order[left]] ? order[right++] : order[left++];
+                while (left < mid)
+                    other[out++] = order[left++];
+                while (right < high)
+                    other[out++] = order[right++];
+            }
+            int[] swap = order;
+            order = other;
+            other = swap;
+        }
+        return order;
+    }
+}
@@ -0,0 +1,174 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.util.concurrent.RecursiveTask;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * <code>AStarSolver</code> implements a solver for <code>Maze</code>
+ * objects using single-thread A* search.
+ * <p>
+ * The heuristic of a node is the Manhattan distance between its cell
+ * and the nearest goal cell. Since every move changes the row or the
+ * column by one, the heuristic never overestimates and is consistent,
+ * so A* returns a shortest path to a goal and expands every node at
+ * most once. When a maze has more than <code>MAX_HEURISTIC_GOALS</code>
+ * goals, computing the nearest one costs more than it saves, and the
+ * heuristic is zero; the search then degenerates to breadth-first.
+ * <p>
+ * The open set is an <code>IntMinHeap</code> keyed on f-score, with
+ * ties broken in favor of the node closest to a goal; the g-scores,
+ * predecessors and closed set are primitive arrays indexed by dense
+ * node index.
+ */
+
+public class AStarSolver
+    extends RecursiveTask<List<Integer>>
+    implements Instrumented
+{
+    /**
+     * The largest number of goals for which the heuristic is the
+     * distance to the nearest goal.
+     */
+    public static final int MAX_HEURISTIC_GOALS = 64;
+
+    private final Maze maze;
+    private final int start;
+    private final int[] goalRows;
+    private final int[] goalCols;
+
+    private long nodesExpanded;
+    private final SolverMetrics metrics = new SolverMetrics(getClass().getSimpleName());
+
+    /**
+     * Creates a solver that searches in <code>maze</code> from the
+     * start node to a nearest goal.
+     *
+     * @param maze   the maze to be searched
+     */
+    public AStarSolver(Maze maze)
+    {
+        this.maze = maze;
+        this.start = maze.indexOf(maze.start());
+        int[] goals = maze.goalIndices();
+        if (goals.length > MAX_HEURISTIC_GOALS)
+            goals = new int[0];
+        goalRows = new int[goals.length];
+        goalCols = new int[goals.length];
+        for (int i = 0; i < goals.length; i++) {
+            goalRows[i] = maze.rowOf(goals[i]);
+            goalCols[i] = maze.colOf(goals[i]);
+        }
+    }
+
+    /**
+     * Searches for and returns a shortest path, as a list of node
+     * identifiers, that goes from the start node to a goal node in
+     * the maze. If such a path cannot be found (because there are no
+     * goals, or all goals are unreacheable), the method returns
+     * <code>null</code>.
+     *
+     * @return   the list of node identifiers from the start node to a
+     *           nearest goal node in the maze; <code>null</code> if such
+     *           a path cannot be found
+     */
+    @Override
+    public List<Integer> compute()
+    {
+        metrics.start(getPool());
+        List<Integer> path = aStarSearch();
+        metrics.finish(getPool(), null);
+        return path;
+    }
+
+    @Override
+    public SolverMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Returns the number of nodes whose neighbors the last search
+     * enumerated.
+     *
+     * @return   the number of nodes expanded
+     */
+    public long getNodesExpanded()
+    {
+        return nodesExpanded;
+    }
+
+    private List<Integer> aStarSearch()
+    {
+        int size = maze.size();
+        int[] g = new int[size];
+        Arrays.fill(g, Integer.MAX_VALUE);
+        int[] predecessor = new int[size];
+        long[] closed = new long[(size + 63) >>> 6];
+        IntMinHeap open = new IntMinHeap(1024);
+        int[] neighbors = new int[4];
+        int player = maze.newPlayer(maze.idOf(start));
+        nodesExpanded = 0;
+
+        g[start] = 0;
+        predecessor[start] = -1;
+        open.push(start, priority(0, heuristic(start)));
+        while (!open.isEmpty()) {
+            int current = open.pop();
+            if ((closed[current >>> 6] & (1L << current)) != 0) {
+                metrics.duplicateVisits.increment();
+                continue;
+            }
+            closed[current >>> 6] |= 1L << current;
+            maze.move(player, maze.idOf(current));
+            if (maze.hasGoalAt(current)) {
+                metrics.goalFound();
+                return pathTo(predecessor, current);
+            }
+            nodesExpanded += 1;
+            metrics.cellsVisited.increment();
+            int n = maze.neighborIndices(current, neighbors);
+            for (int i = 0; i < n; i++) {
+                int nb = neighbors[i];
+                int score = g[current] + 1;
+                if (score < g[nb]) {
+                    g[nb] = score;
+                    predecessor[nb] = current;
+                    open.push(nb, priority(score, heuristic(nb)));
+                }
+            }
+        }
+        return null;
+    }
+
+    // f-score in the high half, h-score in the low half
+    private static long priority(int g, int h)
+    {
+        return ((long) (g + h) << 32) | h;
+    }
+
+    // Manhattan distance from `index' to the nearest goal
+    private int heuristic(int index)
+    {
+        int row = maze.rowOf(index), col = maze.colOf(index);
+        int best = goalRows.length == 0 ? 0 : Integer.MAX_VALUE;
+        for (int i = 0; i < goalRows.length; i++) {
+            int distance = Math.abs(row - goalRows[i]) + Math.abs(col - goalCols[i]);
+            if (distance < best)
+                best = distance;
+        }
+        return best;
+    }
+
+    private List<Integer> pathTo(int[] predecessor, int to)
+    {
+        LinkedList<Integer> path = new LinkedList<>();
+        for (int current = to; current >= 0; current = predecessor[current])
+            path.addFirst(maze.idOf(current));
+        return path;
+    }
+}
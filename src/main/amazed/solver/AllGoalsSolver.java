@@ -0,0 +1,92 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <code>AllGoalsSolver</code> implements a solver for
+ * <code>Maze</code> objects that finds paths to all goals in one
+ * parallel traversal.
+ * <p>
+ * It runs the level-synchronous breadth-first search of
+ * <code>ParallelBfsSolver</code>, but does not stop at the first
+ * goal: the traversal goes on until it has reached every goal, or
+ * every node reachable from the start node. The predecessors it
+ * writes then give a shortest path to every reachable goal, so
+ * <em>k</em> goals cost one traversal instead of <em>k</em> searches.
+ * The goals that were not reached are returned by
+ * <code>getUnreachableGoals</code>.
+ */
+
+public class AllGoalsSolver
+    extends RecursiveTask<Map<Integer, List<Integer>>>
+    implements Instrumented
+{
+    private final Maze maze;
+    private final SolverMetrics metrics = new SolverMetrics(getClass().getSimpleName());
+    private Set<Integer> unreachable = Collections.emptySet();
+
+    /**
+     * Creates a solver that searches in <code>maze</code> from the
+     * start node to all goals.
+     *
+     * @param maze   the maze to be searched
+     */
+    public AllGoalsSolver(Maze maze)
+    {
+        this.maze = maze;
+    }
+
+    /**
+     * Searches for a shortest path, as a list of node identifiers,
+     * from the start node to every goal in the maze, and returns the
+     * paths by goal. Goals that cannot be reached from the start node
+     * are left out of the result, and returned by
+     * <code>getUnreachableGoals</code> afterwards.
+     *
+     * @return   a map from the identifier of every reachable goal node
+     *           to a shortest path from the start node to it, in
+     *           increasing order of dense index of the goals
+     */
+    @Override
+    public Map<Integer, List<Integer>> compute()
+    {
+        ParallelBfsSolver bfs = new ParallelBfsSolver(maze, metrics);
+        bfs.searchAll();
+        Map<Integer, List<Integer>> paths = new LinkedHashMap<>();
+        Set<Integer> missed = new LinkedHashSet<>();
+        for (int goal: maze.goalIndices()) {
+            if (bfs.isReached(goal))
+                paths.put(maze.idOf(goal), bfs.pathTo(goal));
+            else
+                missed.add(maze.idOf(goal));
+        }
+        unreachable = Collections.unmodifiableSet(missed);
+        return paths;
+    }
+
+    /**
+     * Returns the goals that the last search could not reach from the
+     * start node.
+     *
+     * @return   the identifiers of the unreachable goal nodes; empty
+     *           before the first search
+     */
+    public Set<Integer> getUnreachableGoals()
+    {
+        return unreachable;
+    }
+
+    @Override
+    public SolverMetrics getMetrics()
+    {
+        return metrics;
+    }
+}
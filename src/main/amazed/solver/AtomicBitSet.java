@@ -0,0 +1,57 @@
+package amazed.solver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free <code>VisitedSet</code> backed by a single
+ * <code>AtomicLongArray</code>, one bit per node. Claiming a node is
+ * a compare-and-set on the word that holds its bit; it never boxes
+ * or allocates.
+ */
+class AtomicBitSet
+    implements VisitedSet
+{
+    private final AtomicLongArray words;
+    // compare-and-set operations lost to another thread
+    private final LongAdder casFailures = new LongAdder();
+
+    /**
+     * Creates an empty set for dense indices from <code>0</code> to
+     * <code>size - 1</code>.
+     *
+     * @param size   the number of nodes in the maze
+     */
+    AtomicBitSet(int size)
+    {
+        words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    @Override
+    public boolean claim(int index)
+    {
+        int word = index >>> 6;
+        long bit = 1L << index;
+        long old;
+        for (;;) {
+            old = words.get(word);
+            if ((old & bit) != 0)
+                return false;
+            if (words.compareAndSet(word, old, old | bit))
+                return true;
+            casFailures.increment();
+        }
+    }
+
+    @Override
+    public boolean contains(int index)
+    {
+        return (words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    @Override
+    public long casFailures()
+    {
+        return casFailures.sum();
+    }
+}
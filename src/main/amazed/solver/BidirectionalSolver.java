@@ -0,0 +1,181 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.util.concurrent.RecursiveTask;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * <code>BidirectionalSolver</code> implements a solver for
+ * <code>Maze</code> objects using single-thread bidirectional
+ * breadth-first search.
+ * <p>
+ * When the maze has exactly one goal, two searches grow from the
+ * start node and from the goal, one whole level at a time, always
+ * expanding the side with the smaller frontier. As soon as a level
+ * reaches a node already seen by the other side, the level is
+ * finished and the shortest of the meeting paths is returned. On a
+ * maze where the two searches would each cover a disc of radius
+ * <em>d</em>/2 instead of one of radius <em>d</em>, this expands far
+ * fewer nodes.
+ * <p>
+ * When the maze has no goal, or more than one, there is no single
+ * node to search back from, and the solver runs an
+ * <code>AStarSolver</code> instead.
+ */
+
+public class BidirectionalSolver
+    extends RecursiveTask<List<Integer>>
+    implements Instrumented
+{
+    private final Maze maze;
+    private final int start;
+
+    private long nodesExpanded;
+    // replaced by the metrics of the fallback solver, if it runs
+    private SolverMetrics metrics = new SolverMetrics(getClass().getSimpleName());
+
+    /**
+     * Creates a solver that searches in <code>maze</code> between the
+     * start node and a goal.
+     *
+     * @param maze   the maze to be searched
+     */
+    public BidirectionalSolver(Maze maze)
+    {
+        this.maze = maze;
+        this.start = maze.indexOf(maze.start());
+    }
+
+    /**
+     * Searches for and returns a shortest path, as a list of node
+     * identifiers, that goes from the start node to a goal node in
+     * the maze. If such a path cannot be found (because there are no
+     * goals, or all goals are unreacheable), the method returns
+     * <code>null</code>.
+     *
+     * @return   the list of node identifiers from the start node to a
+     *           nearest goal node in the maze; <code>null</code> if such
+     *           a path cannot be found
+     */
+    @Override
+    public List<Integer> compute()
+    {
+        int[] goals = maze.goalIndices();
+        if (goals.length != 1) {
+            AStarSolver fallback = new AStarSolver(maze);
+            List<Integer> path = fallback.compute();
+            nodesExpanded = fallback.getNodesExpanded();
+            metrics = fallback.getMetrics();
+            return path;
+        }
+        metrics.start(getPool());
+        List<Integer> path = bidirectionalSearch(goals[0]);
+        metrics.cellsVisited.add(nodesExpanded);
+        metrics.finish(getPool(), null);
+        return path;
+    }
+
+    @Override
+    public SolverMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Returns the number of nodes whose neighbors the last search
+     * enumerated, on both sides.
+     *
+     * @return   the number of nodes expanded
+     */
+    public long getNodesExpanded()
+    {
+        return nodesExpanded;
+    }
+
+    private List<Integer> bidirectionalSearch(int goal)
+    {
+        int size = maze.size();
+        nodesExpanded = 0;
+        if (start == goal) {
+            metrics.goalFound();
+            return pathOf(start);
+        }
+        // distance from each side, or -1 if not seen
+        int[][] distance = { new int[size], new int[size] };
+        int[][] predecessor = { new int[size], new int[size] };
+        Arrays.fill(distance[0], -1);
+        Arrays.fill(distance[1], -1);
+        int[][] frontier = { { start }, { goal } };
+        int[] frontierSize = { 1, 1 };
+        distance[0][start] = 0;
+        predecessor[0][start] = -1;
+        distance[1][goal] = 0;
+        predecessor[1][goal] = -1;
+        int[] neighbors = new int[4];
+
+        while (frontierSize[0] > 0 && frontierSize[1] > 0) {
+            int side = frontierSize[0] <= frontierSize[1] ? 0 : 1;
+            int other = 1 - side;
+            int[] dist = distance[side], pred = predecessor[side];
+            int[] next = new int[3 * frontierSize[side] + 1];
+            int nextSize = 0;
+            int best = Integer.MAX_VALUE, meetFrom = -1, meetTo = -1;
+            for (int i = 0; i < frontierSize[side]; i++) {
+                int current = frontier[side][i];
+                nodesExpanded += 1;
+                int n = maze.neighborIndices(current, neighbors);
+                for (int j = 0; j < n; j++) {
+                    int nb = neighbors[j];
+                    if (distance[other][nb] >= 0) {
+                        int length = dist[current] + 1 + distance[other][nb];
+                        if (length < best) {
+                            best = length;
+                            meetFrom = current;
+                            meetTo = nb;
+                        }
+                    }
+                    if (dist[nb] < 0) {
+                        dist[nb] = dist[current] + 1;
+                        pred[nb] = current;
+                        next[nextSize++] = nb;
+                    }
+                }
+            }
+            if (meetFrom >= 0) {
+                metrics.goalFound();
+                // meetFrom is on `side', meetTo on `other'
+                int forwardEnd = side == 0 ? meetFrom : meetTo;
+                int backwardStart = side == 0 ? meetTo : meetFrom;
+                return joinPaths(predecessor[0], forwardEnd, predecessor[1], backwardStart);
+            }
+            frontier[side] = next;
+            frontierSize[side] = nextSize;
+        }
+        return null;
+    }
+
+    // start ... forwardEnd followed by backwardStart ... goal
+    private List<Integer> joinPaths(int[] forward, int forwardEnd,
+                                    int[] backward, int backwardStart)
+    {
+        LinkedList<Integer> path = new LinkedList<>();
+        for (int current = forwardEnd; current >= 0; current = forward[current])
+            path.addFirst(maze.idOf(current));
+        for (int current = backwardStart; current >= 0; current = backward[current])
+            path.addLast(maze.idOf(current));
+        int player = maze.newPlayer(maze.idOf(start));
+        maze.move(player, path.getLast());
+        return path;
+    }
+
+    private List<Integer> pathOf(int index)
+    {
+        LinkedList<Integer> path = new LinkedList<>();
+        path.add(maze.idOf(index));
+        return path;
+    }
+}
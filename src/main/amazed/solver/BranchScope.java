@@ -0,0 +1,122 @@
+package amazed.solver;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Structured scope of the threads of one search, each exploring one
+ * branch, that shuts down when the first branch succeeds.
+ * <p>
+ * This is a small stand-in for
+ * <code>StructuredTaskScope.ShutdownOnSuccess</code>, which the
+ * platform this code targets does not provide. Every branch runs in a
+ * new thread created by the scope's thread factory; a branch may fork
+ * further branches while the scope is open. The first result passed
+ * to <code>succeed</code> wins and shuts the scope down: no more
+ * branches are started, and running branches are expected to poll
+ * <code>isShutdown</code> and return. Branches are not interrupted,
+ * since they may be pausing in <code>Maze.move</code>, which reports
+ * interruptions. <code>join</code> returns only when every branch has
+ * terminated, so no thread of the search outlives it.
+ */
+class BranchScope<T>
+{
+    private final ThreadFactory factory;
+    private final int maxBranches;
+
+    private final AtomicReference<T> result = new AtomicReference<>();
+    private volatile boolean shutdown;
+    // branches started and not yet terminated; guarded by this
+    private int live;
+    // first exception thrown by a branch; guarded by this
+    private Throwable failure;
+
+    /**
+     * Creates a scope whose branches run in threads created by
+     * <code>factory</code>, at most <code>maxBranches</code> at a
+     * time.
+     */
+    BranchScope(ThreadFactory factory, int maxBranches)
+    {
+        this.factory = factory;
+        this.maxBranches = maxBranches;
+    }
+
+    /**
+     * Starts <code>branch</code> in a new thread, unless the scope is
+     * shut down or already runs <code>maxBranches</code> branches.
+     *
+     * @return   <code>true</code> if the branch was started; otherwise
+     *           the caller must run it itself or drop it
+     */
+    boolean fork(Runnable branch)
+    {
+        synchronized (this) {
+            if (shutdown || live >= maxBranches)
+                return false;
+            live += 1;
+        }
+        Thread thread = factory.newThread(() -> run(branch));
+        thread.start();
+        return true;
+    }
+
+    private void run(Runnable branch)
+    {
+        try {
+            branch.run();
+        } catch (Throwable e) {
+            synchronized (this) {
+                if (failure == null)
+                    failure = e;
+            }
+            shutdown = true;
+        } finally {
+            synchronized (this) {
+                live -= 1;
+                if (live == 0)
+                    notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Publishes <code>value</code> as the result of the scope unless
+     * another branch succeeded first, and shuts the scope down.
+     *
+     * @return   <code>true</code> if <code>value</code> is the result
+     */
+    boolean succeed(T value)
+    {
+        boolean first = result.compareAndSet(null, value);
+        shutdown = true;
+        return first;
+    }
+
+    /**
+     * Returns whether the scope is shut down, because a branch
+     * succeeded or failed.
+     */
+    boolean isShutdown()
+    {
+        return shutdown;
+    }
+
+    /**
+     * Waits until every branch has terminated, and returns the result,
+     * or <code>null</code> if no branch succeeded.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if a branch threw an exception,
+     *                               which is the cause
+     */
+    synchronized T join()
+    throws InterruptedException
+    {
+        while (live > 0)
+            wait();
+        if (failure != null)
+            throw new IllegalStateException("branch failed", failure);
+        return result.get();
+    }
+}
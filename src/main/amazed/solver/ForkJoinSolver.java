@@ -9,8 +9,7 @@ package amazed.solver;
 import amazed.maze.Maze;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -19,7 +18,49 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * depth-first search.
  * <p>
  * Instances of <code>ForkJoinSolver</code> should be run by a
- * <code>ForkJoinPool</code> object.
+ * <code>ForkJoinPool</code> object. All state shared by the tasks of
+ * one search lives in a <code>SearchContext</code> that is passed to
+ * the forked subtasks, so that several searches can run concurrently
+ * on the same pool without interfering. Instead of the
+ * <code>predecessor</code> map of <code>SequentialSolver</code>, the
+ * tasks share a lock-free <code>PredecessorArray</code>.
+ * <p>
+ * A task forks at a junction, one subtask per unvisited neighbor.
+ * With a fixed <code>forkAfter</code>, it forks at the first junction
+ * after walking that many steps since it started or last forked. With
+ * <code>forkAfter == ADAPTIVE</code>, the decision depends on the
+ * load of the pool instead: a task never forks on a pool of
+ * parallelism one, nor while it already has
+ * <code>SURPLUS_LIMIT</code> or more queued tasks beyond what idle
+ * workers could steal (as measured by
+ * <code>getSurplusQueuedTaskCount</code>); otherwise it forks once it
+ * has walked <code>MIN_GRAIN</code> steps, doubled for every surplus
+ * task and halved when the junction opens three branches. Thus tasks
+ * are small while workers starve, and grow as soon as the pool has
+ * enough queued work.
+ * <p>
+ * Between forks, a busy task also shares its own frontier: whenever
+ * its pool has no surplus queued tasks, that is, some worker is idle
+ * or about to be, and its frontier holds at least
+ * <code>MIN_SPLIT</code> nodes, the task forks a subtask with the
+ * bottom (oldest) half of its frontier and keeps searching from the
+ * top. The oldest nodes are the roots of the largest unexplored
+ * subtrees, so a branchy region discovered early is searched in
+ * parallel even when the task that discovered it is long past its
+ * last fork.
+ * <p>
+ * The first task that finds a goal publishes its path in the search
+ * context, which cancels the forked tasks that have not started yet.
+ * The other tasks stop at their next step and return without waiting
+ * for their subtasks, and the root returns the published path. The
+ * metrics record the time to the first path, to the return of the
+ * root, and to the stop of the last task separately.
+ * <p>
+ * A compressed solver searches the junction graph of the maze, as
+ * described for <code>SequentialSolver</code>; all tasks of the search
+ * share the graph through the search context. A step then walks a
+ * whole corridor, so <code>forkAfter</code> and the adaptive grain
+ * count junctions instead of cells.
  */
 
 
@@ -28,10 +69,51 @@ public class ForkJoinSolver
 {
 
     /**
-     * concurrent list of visited cells
+     * Value of <code>forkAfter</code> that selects the adaptive
+     * forking policy.
      */
-    private static ConcurrentSkipListSet<Integer> visited = new ConcurrentSkipListSet<>();
-    private static AtomicBoolean finished = new AtomicBoolean();
+    public static final int ADAPTIVE = -1;
+
+    /**
+     * With the adaptive policy, a task with this many surplus queued
+     * tasks does not fork.
+     */
+    public static final int SURPLUS_LIMIT = 3;
+
+    /**
+     * With the adaptive policy, the number of steps a task walks
+     * before forking when the pool has no surplus queued tasks.
+     */
+    public static final int MIN_GRAIN = 16;
+
+    /**
+     * The smallest frontier a task splits for idle workers.
+     */
+    public static final int MIN_SPLIT = 2;
+
+    /**
+     * state shared by all tasks of this search
+     */
+    private final SearchContext context;
+    /**
+     * number of forks between the root task and this task
+     */
+    private final int depth;
+    /**
+     * nodes split off the frontier of another task, or
+     * <code>null</code> if this task starts from <code>current</code>
+     */
+    private final List<Integer> stolen;
+    /**
+     * subtasks forked with halves of the frontier, joined when the
+     * frontier runs empty
+     */
+    private final List<ForkJoinSolver> splits = new ArrayList<>();
+    /**
+     * set when this task starts, or when it is cancelled before it
+     * starts
+     */
+    private final AtomicBoolean started = new AtomicBoolean();
     private int stepCounter = 0;
     private int current = start;
 
@@ -43,14 +125,22 @@ public class ForkJoinSolver
      */
     public ForkJoinSolver(Maze maze)
     {
-        super(maze);
+        this(maze, 0);
     }
 
-    public ForkJoinSolver(Maze maze, int start, Map predecessors, int forkAfter){
-        this(maze);
+    private ForkJoinSolver(Maze maze, int start, SearchContext context, int forkAfter, int depth){
+        this(maze, null, context, forkAfter, depth);
         current = start;
-        this.predecessor = predecessors;
+    }
+
+    private ForkJoinSolver(Maze maze, List<Integer> stolen, SearchContext context, int forkAfter, int depth){
+        super(maze, context.metrics);
+        frontier = new Stack<>();
+        this.stolen = stolen;
+        this.context = context;
+        this.junctions = context.junctions;
         this.forkAfter = forkAfter;
+        this.depth = depth;
     }
 
 
@@ -62,14 +152,67 @@ public class ForkJoinSolver
      *
      * @param maze        the maze to be searched
      * @param forkAfter   the number of steps (visited nodes) after
-     *                    which a parallel task is forked; if
-     *                    <code>forkAfter &lt;= 0</code> the solver never
-     *                    forks new tasks
+     *                    which a parallel task is forked at the next
+     *                    junction, so that <code>0</code> forks at
+     *                    every junction; if it is {@link #ADAPTIVE},
+     *                    the solver decides when to fork from the load
+     *                    of its pool
+     * @throws IllegalArgumentException if <code>forkAfter</code> is
+     *                                  negative and not
+     *                                  {@link #ADAPTIVE}
      */
     public ForkJoinSolver(Maze maze, int forkAfter)
     {
-        this(maze);
+        this(maze, forkAfter, false);
+    }
+
+    /**
+     * Creates a solver that searches in <code>maze</code> from the
+     * start node to a goal, forking after a given number of visited
+     * nodes, and choosing the layout of the shared visited bitmap.
+     *
+     * @param maze        the maze to be searched
+     * @param forkAfter   the number of steps (visited nodes) after
+     *                    which a parallel task is forked, as in
+     *                    {@link #ForkJoinSolver(Maze, int)}
+     * @param striped     if <code>true</code>, the visited bitmap is
+     *                    striped over several arrays; otherwise it is
+     *                    a single <code>AtomicLongArray</code>
+     */
+    public ForkJoinSolver(Maze maze, int forkAfter, boolean striped)
+    {
+        this(maze, forkAfter, striped, false);
+    }
+
+    /**
+     * Creates a solver that searches in <code>maze</code> from the
+     * start node to a goal, forking after a given number of visited
+     * nodes, choosing the layout of the shared visited bitmap, and
+     * whether to search the junction graph of the maze.
+     *
+     * @param maze         the maze to be searched
+     * @param forkAfter    the number of steps (visited nodes) after
+     *                     which a parallel task is forked, as in
+     *                     {@link #ForkJoinSolver(Maze, int)}
+     * @param striped      the layout of the visited bitmap, as in
+     *                     {@link #ForkJoinSolver(Maze, int, boolean)}
+     * @param compressed   if <code>true</code>, the solver searches
+     *                     the junction graph of <code>maze</code>;
+     *                     otherwise every cell
+     * @throws IllegalArgumentException if <code>forkAfter</code> is
+     *                                  negative and not
+     *                                  {@link #ADAPTIVE}
+     */
+    public ForkJoinSolver(Maze maze, int forkAfter, boolean striped, boolean compressed)
+    {
+        super(maze, compressed);
+        if (forkAfter < 0 && forkAfter != ADAPTIVE)
+            throw new IllegalArgumentException("forkAfter " + forkAfter + " is negative");
         this.forkAfter = forkAfter;
+        VisitedSet visited = striped ? new StripedBitSet(maze.size()) : new AtomicBitSet(maze.size());
+        context = new SearchContext(visited, new PredecessorArray(maze.size()), metrics, junctions);
+        depth = 0;
+        stolen = null;
     }
 
     /**
@@ -86,44 +229,151 @@ public class ForkJoinSolver
     @Override
     public List<Integer> compute()
     {
-        return parallelSearch();
+        if (depth > 0) {
+            //cancelled by a task that found a goal first
+            if (!started.compareAndSet(false, true))
+                return null;
+            context.started(this);
+            metrics.maxTaskDepth.accumulate(depth);
+            try {
+                return parallelSearch();
+            } finally {
+                context.stopped();
+            }
+        }
+        metrics.start(getPool());
+        try {
+            // the whole component would be searched in vain
+            if (maze.isGoalReachable())
+                parallelSearch();
+        } finally {
+            context.stopped();
+        }
+        metrics.finish(getPool(), context.visited);
+        return context.result();
+    }
+
+    /**
+     * Cancels this task if it has not started.
+     *
+     * @return   <code>true</code> if this task was cancelled and will
+     *           never search
+     */
+    boolean cancelUnstarted()
+    {
+        if (!started.compareAndSet(false, true))
+            return false;
+        // a worker may be about to run the task, which then returns
+        // without searching; either way the task is stopped
+        cancel(false);
+        return true;
+    }
+
+    /**
+     * Decides whether to fork at a junction with up to
+     * <code>branches</code> unvisited neighbors.
+     */
+    private boolean shouldFork(int branches)
+    {
+        if (forkAfter != ADAPTIVE)
+            return stepCounter >= forkAfter;
+        if (getPool() == null || getPool().getParallelism() <= 1)
+            return false;
+        int surplus = getSurplusQueuedTaskCount();
+        if (surplus >= SURPLUS_LIMIT)
+            return false;
+        int grain = MIN_GRAIN << surplus;
+        if (branches > 2)
+            grain >>= 1;
+        return stepCounter >= grain;
+    }
+
+    /**
+     * Forks a subtask with the bottom half of the frontier if some
+     * worker of the pool has nothing to do.
+     */
+    private void splitFrontier()
+    {
+        if (frontier.size() < MIN_SPLIT || getPool() == null
+            || getPool().getParallelism() <= 1 || getSurplusQueuedTaskCount() > 0)
+            return;
+        List<Integer> bottom = frontier.subList(0, frontier.size() / 2);
+        ForkJoinSolver thief = new ForkJoinSolver(maze, new ArrayList<>(bottom), context, forkAfter, depth + 1);
+        bottom.clear();
+        splits.add(context.fork(thief));
+    }
+
+    /**
+     * Joins <code>tasks</code> in order, unless some task publishes a
+     * path in the meantime, and returns the published path. An
+     * exception thrown by a task, other than its cancellation, is
+     * rethrown.
+     */
+    private List<Integer> joinAll(List<ForkJoinSolver> tasks)
+    {
+        for (ForkJoinSolver task: tasks) {
+            if (context.isFinished())
+                break;
+            try {
+                task.join();
+            } catch (CancellationException e) {
+                //cancelled by a task that found a goal first
+            }
+            metrics.tasksJoined.increment();
+        }
+        return context.result();
+    }
+
+    @Override
+    protected List<Integer> pathFromTo(int from, int to)
+    {
+        return context.predecessor.pathFromTo(maze, maze.indexOf(from), maze.indexOf(to));
     }
 
     private List<Integer> parallelSearch()
     {
+        //a task split off another task's frontier claims its nodes as
+        //it pops them, like any node it pushed itself
+        if (stolen != null)
+            return searchFrom(maze.newPlayer(stolen.get(stolen.size() - 1)), stolen, false);
+
         //initialize this solver
         //if current is already in visited, this will return false
         //otherwise, we have added current to visited
-        if(!visited.add(current)){
+        if(!context.visited.claim(maze.indexOf(current))){
+            metrics.duplicateVisits.increment();
             return null;
         }
         
         //create the player
         int player = maze.newPlayer(current);
 
-        //push the current node to frontier
-        frontier.push(current);
-
         /*
         makes the solver ignore that it's starting position is
         already visited since new player must spawn on a space
          */
-        boolean firstIteration = true;
+        return searchFrom(player, List.of(current), true);
+    }
+
+    private List<Integer> searchFrom(int player, List<Integer> nodes, boolean firstIteration)
+    {
+        //push the start nodes to frontier
+        frontier.addAll(nodes);
 
         //enter the search loop
-        while (!frontier.empty() && !finished.get()){
+        while (!frontier.empty() && !context.isFinished()){
 
             //take out the node next up for examination and call it "current"
             int current = frontier.pop();
             
             //check if current is a goal
             if (maze.hasGoal(current)) {
-                //set the shared variable to inform everyone that the search is finished
-                finished.set(true);
+                //publish the path to inform everyone that the search is finished;
+                //if another task published first, its path is the result
+                context.publish(expand(pathFromTo(start, current)));
                 //move player to goal
                 maze.move(player, current);
-                //search finished: reconstruct and return path
-                return pathFromTo(start, current);
+                return context.result();
             }
             
             //current was not goal
@@ -132,67 +382,68 @@ public class ForkJoinSolver
             // if so, skip the rest of the iteration
             //  in case it was not the first iteration, which is the exception where 
             //   current will be added before this step
-            if(!visited.add(current) && !firstIteration){
+            if(!context.visited.claim(maze.indexOf(current)) && !firstIteration){
+               metrics.duplicateVisits.increment();
                continue;
             }
             else if(firstIteration) firstIteration = false;
+            metrics.cellsVisited.increment();
 
             //move player to current
             maze.move(player, current);
             //get the neighbors of current
-            Set<Integer> neighbors = maze.neighbors(current);
+            Set<Integer> neighbors = successors(current);
 
             //if there are more than one nodes to choose between for the next step, and there have been enough steps since last fork, do forking
             // ("> 2" means two or more not visited by current fork. size is always at least 1 (the previous will always be there))
-            if(neighbors.size() > 2 && stepCounter >= forkAfter){
+            if(neighbors.size() > 2 && shouldFork(neighbors.size() - 1)){
+                //the next fork is counted from here
+                stepCounter = 0;
                 //make list to keep track of the forked tasks
-                ArrayList<ForkJoinTask<List<Integer>>> forks = new ArrayList<>();
+                ArrayList<ForkJoinSolver> forks = new ArrayList<>();
                 //go through all the neighbors of current
                 for(int nb:neighbors){
                     //if the neighbor is not visited
-                    if(!visited.contains(nb)){
+                    if(!context.visited.contains(maze.indexOf(nb))){
                         //add it to the path of predecessors
-                        predecessor.put(nb, current);
+                        context.predecessor.set(maze.indexOf(nb), maze.indexOf(current));
                         //create a new solver
-                        ForkJoinSolver newSolver = new ForkJoinSolver(maze, nb, predecessor, forkAfter);
+                        ForkJoinSolver newSolver = new ForkJoinSolver(maze, nb, context, forkAfter, depth + 1);
                         //add it to the list of
-                        forks.add(newSolver.fork());
+                        forks.add(context.fork(newSolver));
                     }
                 }
-                //for each forked task
-                for (ForkJoinTask<List<Integer>> fork:forks) {
-                    //get the result from the fork
-                    List<Integer> path = fork.join();
-                    //if the path found was not null, return the path
-                    if(path != null){
-                        return path;
-                    }
+                //wait for the forked tasks, or until some task finds a path
+                if(joinAll(forks) != null){
+                    return context.result();
                 }
                 //if there are still nodes to explore, keep searching
                 if(!frontier.empty()) {
                     continue;
                 }
-                //if there was no path found, return null
-                return null;
+                //if there was no path found, wait for the split tasks
+                return joinAll(splits);
             }
             //else if it was not time to fork
             else {
                 //for each of the neighbors
                 for(int nb: neighbors){
                     //if not visited
-                    if(!visited.contains(nb)){
+                    if(!context.visited.contains(maze.indexOf(nb))){
                         //put current as predecessor
-                        predecessor.put(nb, current);
+                        context.predecessor.set(maze.indexOf(nb), maze.indexOf(current));
                         //push to frontier
                         frontier.push(nb);
                     }
                 }
             }
+            //let idle workers take the oldest part of the frontier
+            splitFrontier();
             //count the step
             this.stepCounter ++;
         }
         //dead end, return the result of joining
-        return null;
+        return joinAll(splits);
     }
 }
 
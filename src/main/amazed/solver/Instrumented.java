@@ -0,0 +1,16 @@
+package amazed.solver;
+
+/**
+ * <code>Instrumented</code> is implemented by solvers that count
+ * what they do while they search.
+ */
+public interface Instrumented
+{
+    /**
+     * Returns the metrics of the search performed by this solver;
+     * they are complete once <code>compute</code> has returned.
+     *
+     * @return   the metrics of this solver's search
+     */
+    SolverMetrics getMetrics();
+}
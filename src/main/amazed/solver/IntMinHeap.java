@@ -0,0 +1,83 @@
+package amazed.solver;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of dense node indices keyed on <code>long</code>
+ * priorities.
+ * <p>
+ * Keys and nodes are kept in two parallel primitive arrays, so the
+ * heap neither boxes nor allocates per entry. There is no
+ * decrease-key: callers push a node again with its better priority
+ * and skip stale entries when they pop them.
+ */
+class IntMinHeap
+{
+    private long[] keys;
+    private int[] nodes;
+    private int size;
+
+    IntMinHeap(int capacity)
+    {
+        keys = new long[Math.max(16, capacity)];
+        nodes = new int[keys.length];
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    void push(int node, long priority)
+    {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * keys.length);
+            nodes = Arrays.copyOf(nodes, keys.length);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (keys[parent] <= priority)
+                break;
+            keys[i] = keys[parent];
+            nodes[i] = nodes[parent];
+            i = parent;
+        }
+        keys[i] = priority;
+        nodes[i] = node;
+    }
+
+    // priority of the minimum entry; the heap must not be empty
+    long peekPriority()
+    {
+        return keys[0];
+    }
+
+    // remove the minimum entry and return its node; the heap must not be empty
+    int pop()
+    {
+        int top = nodes[0];
+        long lastKey = keys[--size];
+        int lastNode = nodes[size];
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && keys[child + 1] < keys[child])
+                child += 1;
+            if (lastKey <= keys[child])
+                break;
+            keys[i] = keys[child];
+            nodes[i] = nodes[child];
+            i = child;
+        }
+        keys[i] = lastKey;
+        nodes[i] = lastNode;
+        return top;
+    }
+}
@@ -0,0 +1,325 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <code>ParallelBfsSolver</code> implements a solver for
+ * <code>Maze</code> objects using a level-synchronous parallel
+ * breadth-first search.
+ * <p>
+ * The search proceeds one level (distance from the start node) at a
+ * time. Each level is expanded by a tree of <code>RecursiveAction</code>
+ * tasks over chunks of the current frontier, so idle workers steal
+ * chunks instead of waiting on long corridors. Nodes are claimed in
+ * a shared <code>AtomicBitSet</code>; the task that claims a node
+ * writes its predecessor, and appends it to the next frontier.
+ * <p>
+ * Expansion is direction-optimizing: while the frontier is small,
+ * levels are expanded <em>top-down</em>, from frontier nodes to their
+ * unvisited neighbors; once the frontier holds a large fraction of
+ * the unvisited nodes, levels are expanded <em>bottom-up</em>, by
+ * scanning the unvisited nodes for a neighbor in the frontier, which
+ * needs no claiming at all.
+ * <p>
+ * The search stops at the first level that contains a goal, so the
+ * returned path is a shortest path to a nearest goal. For
+ * <code>AllGoalsSolver</code>, the same traversal instead continues
+ * until it has reached every goal, or every reachable node.
+ */
+
+public class ParallelBfsSolver
+    extends RecursiveTask<List<Integer>>
+    implements Instrumented
+{
+    // number of nodes expanded sequentially by a leaf task
+    private static final int CHUNK = 1024;
+    // switch to bottom-up when frontier * ALPHA > unvisited nodes
+    private static final int ALPHA = 14;
+    // switch back to top-down when frontier * BETA < nodes
+    private static final int BETA = 24;
+
+    private final Maze maze;
+    private final int size;
+    private final int start;
+    private final AtomicBitSet visited;
+    private final int[] predecessor;
+
+    // current and next levels
+    private int[] frontier;
+    private int frontierSize;
+    private int[] next;
+    private final AtomicInteger nextSize = new AtomicInteger();
+    // bitset of the current level, used bottom-up
+    private long[] inFrontier;
+    // smallest dense index of a goal in the next level, or size
+    private final AtomicInteger goal;
+    // whether the search continues past the first goal, until it has
+    // reached all goals
+    private boolean allGoals;
+    // goals not reached yet, when searching for all goals
+    private final AtomicInteger goalsLeft = new AtomicInteger();
+
+    private final SolverMetrics metrics;
+
+    /**
+     * Creates a solver that searches in <code>maze</code> from the
+     * start node to a nearest goal.
+     *
+     * @param maze   the maze to be searched
+     */
+    public ParallelBfsSolver(Maze maze)
+    {
+        this(maze, null);
+    }
+
+    // solver of `maze' updating `metrics', or metrics of its own if null
+    ParallelBfsSolver(Maze maze, SolverMetrics metrics)
+    {
+        this.metrics = metrics != null ? metrics : new SolverMetrics(getClass().getSimpleName());
+        this.maze = maze;
+        this.size = maze.size();
+        this.start = maze.indexOf(maze.start());
+        this.visited = new AtomicBitSet(size);
+        this.predecessor = new int[size];
+        this.goal = new AtomicInteger(size);
+    }
+
+    /**
+     * Searches for and returns a shortest path, as a list of node
+     * identifiers, that goes from the start node to a goal node in
+     * the maze. If such a path cannot be found (because there are no
+     * goals, or all goals are unreacheable), the method returns
+     * <code>null</code>.
+     *
+     * @return   the list of node identifiers from the start node to a
+     *           nearest goal node in the maze; <code>null</code> if such
+     *           a path cannot be found
+     */
+    @Override
+    public List<Integer> compute()
+    {
+        metrics.start(getPool());
+        // the whole component would be searched in vain
+        List<Integer> path = maze.isGoalReachable() ? breadthFirstSearch() : null;
+        metrics.finish(getPool(), visited);
+        return path;
+    }
+
+    @Override
+    public SolverMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Traverses the maze until every goal reachable from the start
+     * node is reached, which takes no traversal at all if there is
+     * none. Afterwards, <code>isReached</code> and <code>pathTo</code>
+     * give a shortest path to every reachable goal. Must be called in
+     * a fork/join pool, at most once, instead of <code>compute</code>.
+     */
+    void searchAll()
+    {
+        allGoals = true;
+        // stop as soon as the goals in other components are all that is left
+        goalsLeft.set(maze.reachableGoalIndices().length);
+        metrics.start(getPool());
+        if (goalsLeft.get() > 0)
+            breadthFirstSearch();
+        metrics.finish(getPool(), visited);
+    }
+
+    /**
+     * Returns whether the search reached the node with dense index
+     * <code>index</code>.
+     */
+    boolean isReached(int index)
+    {
+        return visited.contains(index);
+    }
+
+    private List<Integer> breadthFirstSearch()
+    {
+        int player = maze.newPlayer(maze.idOf(start));
+        visited.claim(start);
+        predecessor[start] = -1;
+        if (maze.hasGoalAt(start)) {
+            metrics.goalFound();
+            if (!allGoals)
+                return pathTo(start);
+            if (goalsLeft.decrementAndGet() == 0)
+                return null;
+        }
+        frontier = new int[16];
+        frontier[0] = start;
+        frontierSize = 1;
+        next = new int[16];
+        long unvisited = size - 1;
+        boolean bottomUp = false;
+        while (frontierSize > 0) {
+            ensureNextCapacity();
+            nextSize.set(0);
+            if (!bottomUp && (long) frontierSize * ALPHA > unvisited)
+                bottomUp = true;
+            else if (bottomUp && (long) frontierSize * BETA < size)
+                bottomUp = false;
+            if (bottomUp) {
+                inFrontier = new long[(size + 63) >>> 6];
+                for (int i = 0; i < frontierSize; i++)
+                    inFrontier[frontier[i] >>> 6] |= 1L << frontier[i];
+                invokeAll(new BottomUp(0, size, 1));
+            } else
+                invokeAll(new TopDown(0, frontierSize, 1));
+            metrics.cellsVisited.add(frontierSize);
+            if (allGoals && goalsLeft.get() == 0)
+                return null;
+            int found = goal.get();
+            if (!allGoals && found < size) {
+                metrics.goalFound();
+                maze.move(player, maze.idOf(found));
+                return pathTo(found);
+            }
+            unvisited -= nextSize.get();
+            int[] swap = frontier;
+            frontier = next;
+            frontierSize = nextSize.get();
+            next = swap;
+        }
+        return null;
+    }
+
+    // the next level is at most as large as the unvisited nodes,
+    // and at most three times the current level
+    private void ensureNextCapacity()
+    {
+        long bound = Math.min((long) size, 3L * frontierSize + 1);
+        if (next.length < bound)
+            next = new int[(int) bound];
+    }
+
+    // append the `count' nodes in `found' to the next level
+    private void discovered(int[] found, int count)
+    {
+        if (count == 0)
+            return;
+        int offset = nextSize.getAndAdd(count);
+        System.arraycopy(found, 0, next, offset, count);
+        for (int i = 0; i < count; i++) {
+            if (!maze.hasGoalAt(found[i]))
+                continue;
+            if (allGoals) {
+                metrics.goalFound();
+                goalsLeft.decrementAndGet();
+            } else
+                goal.accumulateAndGet(found[i], Math::min);
+        }
+    }
+
+    private class TopDown
+        extends RecursiveAction
+    {
+        private final int from, to;
+        // number of splits from the task that expands the whole level
+        private final int depth;
+
+        TopDown(int from, int to, int depth)
+        {
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > CHUNK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TopDown(from, mid, depth + 1), new TopDown(mid, to, depth + 1));
+                metrics.tasksForked.add(2);
+                metrics.tasksJoined.add(2);
+                return;
+            }
+            metrics.maxTaskDepth.accumulate(depth);
+            int[] neighbors = new int[4];
+            int[] found = new int[3 * (to - from) + 1];
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                int current = frontier[i];
+                int n = maze.neighborIndices(current, neighbors);
+                for (int j = 0; j < n; j++) {
+                    int nb = neighbors[j];
+                    if (visited.contains(nb))
+                        continue;
+                    if (visited.claim(nb)) {
+                        predecessor[nb] = current;
+                        found[count++] = nb;
+                    } else
+                        metrics.duplicateVisits.increment();
+                }
+            }
+            discovered(found, count);
+        }
+    }
+
+    private class BottomUp
+        extends RecursiveAction
+    {
+        private final int from, to;
+        // number of splits from the task that scans all nodes
+        private final int depth;
+
+        BottomUp(int from, int to, int depth)
+        {
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > 64 * CHUNK) {
+                // split on word boundaries, so no two tasks share a word
+                int mid = ((from + to) >>> 1) & ~63;
+                invokeAll(new BottomUp(from, mid, depth + 1), new BottomUp(mid, to, depth + 1));
+                metrics.tasksForked.add(2);
+                metrics.tasksJoined.add(2);
+                return;
+            }
+            metrics.maxTaskDepth.accumulate(depth);
+            int[] neighbors = new int[4];
+            int[] found = new int[to - from];
+            int count = 0;
+            for (int current = from; current < to; current++) {
+                if (visited.contains(current))
+                    continue;
+                int n = maze.neighborIndices(current, neighbors);
+                for (int j = 0; j < n; j++) {
+                    int nb = neighbors[j];
+                    if ((inFrontier[nb >>> 6] & (1L << nb)) != 0) {
+                        visited.claim(current);
+                        predecessor[current] = nb;
+                        found[count++] = current;
+                        break;
+                    }
+                }
+            }
+            discovered(found, count);
+        }
+    }
+
+    // shortest path from the start node to the reached node with dense index `to'
+    List<Integer> pathTo(int to)
+    {
+        LinkedList<Integer> path = new LinkedList<>();
+        for (int current = to; current >= 0; current = predecessor[current])
+            path.addFirst(maze.idOf(current));
+        return path;
+    }
+}
@@ -0,0 +1,84 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Lock-free predecessor relation of a parallel search, backed by an
+ * <code>AtomicIntegerArray</code> indexed by dense index.
+ * <p>
+ * The predecessor of a node is written at most once, with a
+ * compare-and-set: the first task that reaches a node from a claimed
+ * neighbor records that neighbor, and later writes are ignored. Since
+ * a neighbor is claimed before it reaches the node, following
+ * predecessors always leads to nodes reached earlier, and ends at the
+ * start node. Entries hold the dense index of the predecessor plus
+ * one, so that the zeroes of a new array mean "no predecessor".
+ */
+class PredecessorArray
+{
+    private final AtomicIntegerArray links;
+
+    /**
+     * Creates an empty relation for dense indices from <code>0</code>
+     * to <code>size - 1</code>.
+     *
+     * @param size   the number of nodes in the maze
+     */
+    PredecessorArray(int size)
+    {
+        links = new AtomicIntegerArray(size);
+    }
+
+    /**
+     * Records that the node with dense index <code>index</code> was
+     * reached from its neighbor with dense index <code>from</code>,
+     * unless it has a predecessor already.
+     *
+     * @return   <code>true</code> if the predecessor was written
+     */
+    boolean set(int index, int from)
+    {
+        return links.compareAndSet(index, 0, from + 1);
+    }
+
+    /**
+     * Returns the dense index of the predecessor of the node with
+     * dense index <code>index</code>, or <code>-1</code> if it has
+     * none.
+     */
+    int get(int index)
+    {
+        return links.get(index) - 1;
+    }
+
+    /**
+     * Returns the path, as a list of node identifiers of
+     * <code>maze</code>, from the node with dense index
+     * <code>from</code> to the node with dense index <code>to</code>,
+     * following predecessors backwards; <code>null</code> if no such
+     * path can be reconstructed. Only the returned list boxes node
+     * identifiers.
+     */
+    List<Integer> pathFromTo(Maze maze, int from, int to)
+    {
+        // count the nodes first, so that the path is filled backwards
+        // into an array of the right length
+        int length = 1;
+        for (int current = to; current != from; length++) {
+            current = get(current);
+            if (current < 0 || length > links.length())
+                return null;
+        }
+        int[] indices = new int[length];
+        for (int i = length - 1, current = to; i >= 0; i--, current = get(current))
+            indices[i] = current;
+        List<Integer> path = new ArrayList<>(length);
+        for (int index: indices)
+            path.add(maze.idOf(index));
+        return path;
+    }
+}
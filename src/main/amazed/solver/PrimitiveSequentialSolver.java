@@ -0,0 +1,190 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.util.concurrent.RecursiveTask;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.LinkedList;
+
+/**
+ * <code>PrimitiveSequentialSolver</code> implements a solver for
+ * <code>Maze</code> objects using a single-thread depth-first search
+ * over primitive data structures.
+ * <p>
+ * It explores the maze like <code>SequentialSolver</code>, but works
+ * on dense node indices: the frontier is a growable
+ * <code>int[]</code> stack, visited nodes are bits of a
+ * <code>long[]</code> bitset, and <code>predecessor</code> is an
+ * <code>int[]</code> indexed by dense index. A node is marked as
+ * visited when it is first pushed, so that each node is pushed at
+ * most once and its predecessor is written once. All arrays are
+ * allocated when the solver is created; the search itself only
+ * allocates the returned path.
+ */
+
+public class PrimitiveSequentialSolver
+    extends RecursiveTask<List<Integer>>
+    implements Instrumented
+{
+    /**
+     * Creates a solver that searches in <code>maze</code> from the
+     * start node to a goal.
+     *
+     * @param maze   the maze to be searched
+     */
+    public PrimitiveSequentialSolver(Maze maze)
+    {
+        this.maze = maze;
+        this.start = maze.indexOf(maze.start());
+        int size = maze.size();
+        visited = new long[(size + 63) >>> 6];
+        predecessor = new int[size];
+        Arrays.fill(predecessor, -1);
+        frontier = new int[Math.max(16, Math.min(size, 1024))];
+    }
+
+    /**
+     * The maze being searched.
+     */
+    protected final Maze maze;
+
+    /**
+     * Bitset of the dense indices of all nodes pushed on the frontier
+     * so far during the search.
+     */
+    protected final long[] visited;
+
+    /**
+     * <code>predecessor[n] == m</code> if the node with dense index
+     * <code>n</code> has been first reached from its neighbor with
+     * dense index <code>m</code>; <code>-1</code> if <code>n</code>
+     * has not been reached, or it is the start node.
+     */
+    protected final int[] predecessor;
+
+    /**
+     * Stack of dense indices of the nodes to be visited next; its top
+     * is at <code>frontier[frontierSize - 1]</code>.
+     */
+    protected int[] frontier;
+
+    /**
+     * Number of elements in <code>frontier</code>.
+     */
+    protected int frontierSize;
+
+    /**
+     * The dense index of the node in the maze from where the search
+     * starts.
+     */
+    protected final int start;
+
+    /**
+     * Counters and timings of the search.
+     */
+    protected final SolverMetrics metrics = new SolverMetrics(getClass().getSimpleName());
+
+    /**
+     * Searches for and returns the path, as a list of node
+     * identifiers, that goes from the start node to a goal node in
+     * the maze. If such a path cannot be found (because there are no
+     * goals, or all goals are unreacheable), the method returns
+     * <code>null</code>.
+     *
+     * @return   the list of node identifiers from the start node to a
+     *           goal node in the maze; <code>null</code> if such a path cannot
+     *           be found
+     */
+    @Override
+    public List<Integer> compute()
+    {
+        metrics.start(getPool());
+        List<Integer> path = depthFirstSearch();
+        metrics.finish(getPool(), null);
+        return path;
+    }
+
+    @Override
+    public SolverMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    private List<Integer> depthFirstSearch()
+    {
+        int[] neighbors = new int[4];
+        int player = maze.newPlayer(maze.idOf(start));
+        mark(start);
+        push(start);
+        while (frontierSize > 0) {
+            int current = frontier[--frontierSize];
+            maze.move(player, maze.idOf(current));
+            if (maze.hasGoalAt(current)) {
+                metrics.goalFound();
+                return pathFromTo(start, current);
+            }
+            metrics.cellsVisited.increment();
+            int n = maze.neighborIndices(current, neighbors);
+            for (int i = 0; i < n; i++) {
+                int nb = neighbors[i];
+                if (mark(nb)) {
+                    predecessor[nb] = current;
+                    push(nb);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Marks the node with dense index <code>index</code> as visited.
+     *
+     * @param index   the dense index of a node
+     * @return        <code>true</code> if the node was not visited before
+     */
+    protected boolean mark(int index)
+    {
+        long bit = 1L << index;
+        long word = visited[index >>> 6];
+        if ((word & bit) != 0)
+            return false;
+        visited[index >>> 6] = word | bit;
+        return true;
+    }
+
+    private void push(int index)
+    {
+        if (frontierSize == frontier.length)
+            frontier = Arrays.copyOf(frontier, 2 * frontier.length);
+        frontier[frontierSize++] = index;
+    }
+
+    /**
+     * Returns the connected path, as a list of node identifiers, that
+     * goes from the node with dense index <code>from</code> to the
+     * node with dense index <code>to</code> following
+     * <code>predecessor</code> backwards. If such a path cannot be
+     * reconstructed, the method returns <code>null</code>.
+     *
+     * @param from   the dense index of the initial node on the path
+     * @param to     the dense index of the final node on the path
+     * @return       the list of node identifiers from <code>from</code> to
+     *               <code>to</code>; <code>null</code> if no such path can
+     *               be reconstructed from <code>predecessor</code>
+     */
+    protected List<Integer> pathFromTo(int from, int to)
+    {
+        LinkedList<Integer> path = new LinkedList<>();
+        int current = to;
+        while (current != from) {
+            path.addFirst(maze.idOf(current));
+            current = predecessor[current];
+            if (current < 0)
+                return null;
+        }
+        path.addFirst(maze.idOf(from));
+        return path;
+    }
+}
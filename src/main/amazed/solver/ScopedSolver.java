@@ -0,0 +1,189 @@
+package amazed.solver;
+
+import amazed.maze.Maze;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <code>ScopedSolver</code> implements a solver for <code>Maze</code>
+ * objects using a depth-first search with one thread per branch,
+ * under structured concurrency.
+ * <p>
+ * The search runs in a <code>BranchScope</code>. A branch explores
+ * from its node like <code>PrimitiveSequentialSolver</code>, on a
+ * private <code>int[]</code> stack, and marks nodes as visited in a
+ * shared <code>AtomicBitSet</code> when it first reaches them, writing
+ * their predecessor once in a shared <code>PredecessorArray</code>.
+ * Where it reaches several new nodes, it keeps one and hands each of
+ * the others to a new branch, as long as the scope has room for more
+ * branches; otherwise it pushes them on its own stack. The first
+ * branch that reaches a goal publishes its path and shuts the scope
+ * down, and <code>compute</code> returns once every branch has
+ * stopped.
+ * <p>
+ * Unlike fork/join tasks, the threads of a branch may block: in an
+ * animated maze every move pauses for the animation delay. Where the
+ * platform offers virtual threads, branches run in virtual threads
+ * and up to <code>VIRTUAL_BRANCHES</code> of them run at once;
+ * otherwise they run in platform threads, at most
+ * <code>PLATFORM_BRANCHES</code> at once.
+ */
+
+public class ScopedSolver
+    extends RecursiveTask<List<Integer>>
+    implements Instrumented
+{
+    /**
+     * The most branches that run at the same time in virtual threads.
+     */
+    public static final int VIRTUAL_BRANCHES = 1 << 16;
+
+    /**
+     * The most branches that run at the same time in platform threads.
+     */
+    public static final int PLATFORM_BRANCHES = 256;
+
+    // creates the threads of branches; null if virtual threads are unavailable
+    private static final ThreadFactory VIRTUAL_THREADS = virtualThreadFactory();
+
+    private final Maze maze;
+    private final int start;
+    private final SolverMetrics metrics = new SolverMetrics(getClass().getSimpleName());
+
+    private VisitedSet visited;
+    private PredecessorArray predecessor;
+    private BranchScope<List<Integer>> scope;
+
+    /**
+     * Creates a solver that searches in <code>maze</code> from the
+     * start node to a goal.
+     *
+     * @param maze   the maze to be searched
+     */
+    public ScopedSolver(Maze maze)
+    {
+        this.maze = maze;
+        this.start = maze.indexOf(maze.start());
+    }
+
+    /**
+     * Returns whether branches run in virtual threads.
+     *
+     * @return   <code>true</code> if the platform offers virtual threads
+     */
+    public static boolean hasVirtualThreads()
+    {
+        return VIRTUAL_THREADS != null;
+    }
+
+    // the factory of Thread.ofVirtual(), looked up reflectively so
+    // that this class also compiles and runs on platforms without it
+    private static ThreadFactory virtualThreadFactory()
+    {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory platformThreadFactory()
+    {
+        AtomicInteger count = new AtomicInteger();
+        return branch -> {
+            Thread thread = new Thread(branch, "branch-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Searches for and returns the path, as a list of node
+     * identifiers, that goes from the start node to a goal node in
+     * the maze. If such a path cannot be found (because there are no
+     * goals, or all goals are unreacheable), the method returns
+     * <code>null</code>.
+     *
+     * @return   the list of node identifiers from the start node to a
+     *           goal node in the maze; <code>null</code> if such a path cannot
+     *           be found
+     */
+    @Override
+    public List<Integer> compute()
+    {
+        metrics.start(null);
+        visited = new AtomicBitSet(maze.size());
+        predecessor = new PredecessorArray(maze.size());
+        scope = VIRTUAL_THREADS != null
+            ? new BranchScope<>(VIRTUAL_THREADS, VIRTUAL_BRANCHES)
+            : new BranchScope<>(platformThreadFactory(), PLATFORM_BRANCHES);
+        visited.claim(start);
+        List<Integer> path = null;
+        if (scope.fork(() -> explore(start, 0))) {
+            try {
+                path = scope.join();
+            } catch (InterruptedException e) {
+                System.out.println("Interrupted!");
+            }
+        }
+        metrics.shutdown();
+        metrics.finish(null, visited);
+        return path;
+    }
+
+    @Override
+    public SolverMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    // explores the part of the maze reachable from the node with dense
+    // index `index', which is claimed, in the branch at depth `depth'
+    private void explore(int index, int depth)
+    {
+        metrics.maxTaskDepth.accumulate(depth);
+        int[] neighbors = new int[4];
+        int[] stack = new int[16];
+        int size = 0;
+        stack[size++] = index;
+        int player = maze.newPlayer(maze.idOf(index));
+        while (size > 0 && !scope.isShutdown()) {
+            int current = stack[--size];
+            maze.move(player, maze.idOf(current));
+            if (maze.hasGoalAt(current)) {
+                if (scope.succeed(predecessor.pathFromTo(maze, start, current)))
+                    metrics.goalFound();
+                return;
+            }
+            metrics.cellsVisited.increment();
+            // collect the new nodes in the first entries of neighbors
+            int n = maze.neighborIndices(current, neighbors);
+            int claimed = 0;
+            for (int i = 0; i < n; i++) {
+                int nb = neighbors[i];
+                if (visited.claim(nb)) {
+                    predecessor.set(nb, current);
+                    neighbors[claimed++] = nb;
+                }
+            }
+            if (size + claimed > stack.length)
+                stack = Arrays.copyOf(stack, 2 * (size + claimed));
+            // this branch continues with the first new node
+            for (int i = 1; i < claimed; i++) {
+                int nb = neighbors[i];
+                if (scope.fork(() -> explore(nb, depth + 1)))
+                    metrics.tasksForked.increment();
+                else
+                    stack[size++] = nb;
+            }
+            if (claimed > 0)
+                stack[size++] = neighbors[0];
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package amazed.solver;
+
+import amazed.maze.JunctionGraph;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * State shared by all tasks that take part in one parallel search.
+ * <p>
+ * The root task of a search creates its context, and every forked
+ * subtask receives a reference to the same object. Nothing in it is
+ * static, so independent searches never observe each other's
+ * visited nodes or termination.
+ * <p>
+ * The result of the search is published once: the first task that
+ * finds a path stores it with a compare-and-set, and cancels every
+ * forked task that has not started yet. Tasks that are running notice
+ * the result at their next step and return without joining their own
+ * subtasks, so the root returns soon after the first path is
+ * published. The context counts the tasks that are forked but not yet
+ * returned or cancelled, and records in the metrics when the last of
+ * them stops after a path was published.
+ */
+class SearchContext
+{
+    /**
+     * Dense indices of the nodes claimed by some task of the search.
+     */
+    final VisitedSet visited;
+
+    /**
+     * The predecessor relation built by all tasks of the search.
+     */
+    final PredecessorArray predecessor;
+
+    /**
+     * Counters and timings updated by all tasks of the search.
+     */
+    final SolverMetrics metrics;
+
+    /**
+     * The junction graph searched by all tasks, or <code>null</code>
+     * if they step through every cell.
+     */
+    final JunctionGraph junctions;
+
+    // the path found by the search, or null while none is published
+    private final AtomicReference<List<Integer>> result = new AtomicReference<>();
+    // forked tasks that have not started, cancelled when a path is
+    // published; a task leaves the set when it starts
+    private final Set<ForkJoinSolver> forks = ConcurrentHashMap.newKeySet();
+    // tasks that are running or waiting to run, the root included
+    private final AtomicInteger live = new AtomicInteger(1);
+
+    SearchContext(VisitedSet visited, PredecessorArray predecessor, SolverMetrics metrics,
+                  JunctionGraph junctions)
+    {
+        this.visited = visited;
+        this.predecessor = predecessor;
+        this.metrics = metrics;
+        this.junctions = junctions;
+    }
+
+    /**
+     * Returns whether some task of the search has published a path.
+     */
+    boolean isFinished()
+    {
+        return result.get() != null;
+    }
+
+    /**
+     * Returns the published path, or <code>null</code> if no task has
+     * published one.
+     */
+    List<Integer> result()
+    {
+        return result.get();
+    }
+
+    /**
+     * Publishes <code>path</code> as the result of the search unless
+     * another task published one first, and if so cancels all forked
+     * tasks that have not started.
+     *
+     * @return   <code>true</code> if <code>path</code> is the result
+     */
+    boolean publish(List<Integer> path)
+    {
+        if (!result.compareAndSet(null, path))
+            return false;
+        metrics.goalFound();
+        // only the thread that removes a task from the set cancels it
+        for (ForkJoinSolver fork: forks)
+            if (forks.remove(fork))
+                cancel(fork);
+        return true;
+    }
+
+    /**
+     * Forks <code>task</code> as a task of this search; if a path is
+     * already published, the task is cancelled instead.
+     *
+     * @return   <code>task</code>
+     */
+    ForkJoinSolver fork(ForkJoinSolver task)
+    {
+        live.incrementAndGet();
+        metrics.tasksForked.increment();
+        forks.add(task);
+        task.fork();
+        // a task forked after publish went through the set is
+        // cancelled here
+        if (isFinished() && forks.remove(task))
+            cancel(task);
+        return task;
+    }
+
+    /**
+     * Records that <code>task</code> started, so that publishing a
+     * path no longer needs to cancel it.
+     */
+    void started(ForkJoinSolver task)
+    {
+        forks.remove(task);
+    }
+
+    private void cancel(ForkJoinSolver task)
+    {
+        if (task.cancelUnstarted()) {
+            metrics.tasksCancelled.increment();
+            stopped();
+        }
+    }
+
+    /**
+     * Records that a task of the search returned, or was cancelled
+     * before it started.
+     */
+    void stopped()
+    {
+        if (live.decrementAndGet() == 0)
+            metrics.shutdown();
+    }
+}
@@ -1,5 +1,6 @@
 package amazed.solver;
 
+import amazed.maze.JunctionGraph;
 import amazed.maze.Maze;
 
 import java.util.concurrent.RecursiveTask;
@@ -31,12 +32,20 @@ import java.util.Collections;
  * the visited node that has been visited just before it. Method
  * <code>pathFromTo</code> reconstructs a path by following the
  * <code>precedessor</code> relation backwards.
+ * <p>
+ * A compressed solver searches the <code>JunctionGraph</code> of the
+ * maze instead of the maze itself: it never enters a dead end, and
+ * steps from junction to junction along whole corridors, so the
+ * visited set, the predecessors and the frontier only hold junctions.
+ * The path of junctions it finds is expanded into the path of cells
+ * in the maze when the search is over.
  *
  * @author  Carlo A. Furia
  */
 
 public class SequentialSolver
     extends RecursiveTask<List<Integer>>
+    implements Instrumented
 {
     /**
      * Creates a solver that searches in <code>maze</code> from the
@@ -48,9 +57,46 @@ public class SequentialSolver
     {
         this.maze = maze;
         this.start = maze.start();
+        this.metrics = new SolverMetrics(getClass().getSimpleName());
         initStructures();
     }
 
+    /**
+     * Creates a solver that searches in <code>maze</code> from the
+     * start node to a goal, over the junction graph of the maze if
+     * <code>compressed</code>.
+     *
+     * @param maze         the maze to be searched
+     * @param compressed   if <code>true</code>, the solver searches
+     *                     the junction graph of <code>maze</code>;
+     *                     otherwise every cell
+     */
+    public SequentialSolver(Maze maze, boolean compressed)
+    {
+        this(maze);
+        if (compressed)
+            junctions = maze.junctionGraph();
+    }
+
+    /**
+     * Creates a solver of <code>maze</code> that updates
+     * <code>metrics</code>, without calling
+     * <code>initStructures</code>: <code>visited</code>,
+     * <code>predecessor</code> and <code>frontier</code> are left
+     * <code>null</code> for the subclass to set as it needs. Subclasses
+     * whose many tasks share one search use it, so that creating a
+     * task allocates neither empty structures nor metrics.
+     *
+     * @param maze      the maze to be searched
+     * @param metrics   the metrics of the search
+     */
+    protected SequentialSolver(Maze maze, SolverMetrics metrics)
+    {
+        this.maze = maze;
+        this.start = maze.start();
+        this.metrics = metrics;
+    }
+
     /**
      * Initializes <code>visited</code>, <code>predecessor</code>, and
      * <code>frontier</code> with empty data structures for sequential
@@ -88,6 +134,11 @@ public class SequentialSolver
      * the search.
      */
     protected Map<Integer, Integer> predecessor;
+    /**
+     * The junction graph searched instead of the maze, or
+     * <code>null</code> if the search steps through every cell.
+     */
+    protected JunctionGraph junctions;
     /**
      * The nodes in the maze to be visited next. Using a stack
      * implements a search that goes depth first..
@@ -99,6 +150,11 @@ public class SequentialSolver
      */
     protected int start;
 
+    /**
+     * Counters and timings of the search.
+     */
+    protected SolverMetrics metrics;
+
     /**
      * Searches for and returns the path, as a list of node
      * identifiers, that goes from the start node to a goal node in
@@ -113,7 +169,29 @@ public class SequentialSolver
     @Override
     public List<Integer> compute()
     {
-        return depthFirstSearch();
+        metrics.start(getPool());
+        // the whole component would be searched in vain
+        List<Integer> path = maze.isGoalReachable() ? depthFirstSearch() : null;
+        metrics.finish(getPool(), null);
+        return path;
+    }
+
+    @Override
+    public SolverMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Returns the number of nodes whose neighbors the search has
+     * enumerated, as counted in its metrics; for a parallel search,
+     * this sums the nodes expanded by all its tasks.
+     *
+     * @return   the number of nodes expanded so far
+     */
+    public long getNodesExpanded()
+    {
+        return metrics.getCellsVisited();
     }
 
     private List<Integer> depthFirstSearch()
@@ -128,10 +206,11 @@ public class SequentialSolver
             int current = frontier.pop();
             // if current node has a goal
             if (maze.hasGoal(current)) {
+                metrics.goalFound();
                 // move player to goal
                 maze.move(player, current);
                 // search finished: reconstruct and return path
-                return pathFromTo(start, current);
+                return expand(pathFromTo(start, current));
             }
             // if current node has not been visited yet
             if (!visited.contains(current)) {
@@ -139,8 +218,9 @@ public class SequentialSolver
                 maze.move(player, current);
                 // mark node as visited
                 visited.add(current);
+                metrics.cellsVisited.increment();
                 // for every node nb adjacent to current
-                for (int nb: maze.neighbors(current)) {
+                for (int nb: successors(current)) {
                     // add nb to the nodes to be processed
                     frontier.push(nb);
                     // if nb has not been already visited,
@@ -148,12 +228,42 @@ public class SequentialSolver
                     if (!visited.contains(nb))
                         predecessor.put(nb, current);
                 }
-            }
+            } else
+                metrics.duplicateVisits.increment();
         }
         // all nodes explored, no goal found
         return null;
     }
 
+    /**
+     * Returns the identifiers of the nodes the search steps to from a
+     * given node: its neighbors in the maze, or the junctions at the
+     * other ends of its corridors if the search is compressed.
+     *
+     * @param id   the identifier of a node in the maze
+     * @return     the set of identifiers of the nodes adjacent to
+     *             <code>id</code> in the graph searched
+     */
+    protected Set<Integer> successors(int id)
+    {
+        return junctions == null ? maze.neighbors(id) : junctions.neighbors(id);
+    }
+
+    /**
+     * Returns the path of cells in the maze along a path found by the
+     * search, which is a path of junctions if the search is
+     * compressed.
+     *
+     * @param path   a path in the graph searched, or <code>null</code>
+     * @return       the list of identifiers of the cells along
+     *               <code>path</code>; <code>null</code> if
+     *               <code>path</code> is <code>null</code>
+     */
+    protected List<Integer> expand(List<Integer> path)
+    {
+        return junctions == null ? path : junctions.expand(path);
+    }
+
     /**
      * Returns the connected path, as a list of node identifiers, that
      * goes from node <code>from</code> to node <code>to</code>
@@ -0,0 +1,254 @@
+package amazed.solver;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings of one search, updated by the solver while it
+ * runs and read after it finishes.
+ * <p>
+ * Counters are <code>LongAdder</code>s, so tasks running on different
+ * threads update them without contending on a shared word; a counter
+ * a solver has no use for stays at zero. Times are in nanoseconds
+ * since the search started. Method <code>toJson</code> renders all
+ * values as one JSON object, so that runs can be compared across
+ * releases.
+ */
+public final class SolverMetrics
+{
+    private final String solver;
+
+    final LongAdder cellsVisited = new LongAdder();
+    final LongAdder duplicateVisits = new LongAdder();
+    final LongAdder tasksForked = new LongAdder();
+    final LongAdder tasksJoined = new LongAdder();
+    final LongAdder tasksCancelled = new LongAdder();
+    final LongAccumulator maxTaskDepth = new LongAccumulator(Math::max, 0);
+
+    private long steals;
+    // pool steal count when the search started, to report the difference
+    private long stealsAtStart;
+    private long casFailures;
+
+    private long startNanos;
+    // time to the first goal, or -1 if no goal has been found
+    private final AtomicLong firstGoalNanos = new AtomicLong(-1);
+    // time to completion, or -1 if the search has not finished
+    private volatile long completionNanos = -1;
+    // time until the last task stopped, or -1 if not recorded
+    private final AtomicLong shutdownNanos = new AtomicLong(-1);
+
+    SolverMetrics(String solver)
+    {
+        this.solver = solver;
+    }
+
+    /**
+     * Records that the search starts now, on <code>pool</code> (which
+     * may be <code>null</code>).
+     */
+    void start(ForkJoinPool pool)
+    {
+        startNanos = System.nanoTime();
+        stealsAtStart = pool == null ? 0 : pool.getStealCount();
+    }
+
+    /**
+     * Records that some task found a goal now; only the first call
+     * has an effect.
+     */
+    void goalFound()
+    {
+        firstGoalNanos.compareAndSet(-1, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records that the last task of the search stopped now; only the
+     * first call has an effect.
+     */
+    void shutdown()
+    {
+        shutdownNanos.compareAndSet(-1, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records that the search finished now, on <code>pool</code>
+     * (which may be <code>null</code>), after claiming nodes in
+     * <code>visited</code> (which may be <code>null</code>).
+     */
+    void finish(ForkJoinPool pool, VisitedSet visited)
+    {
+        // the pool's steal count is only updated when workers go idle,
+        // so on a pool shared with other searches this is an estimate
+        steals = pool == null ? 0 : pool.getStealCount() - stealsAtStart;
+        casFailures = visited == null ? 0 : visited.casFailures();
+        completionNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Returns the name of the solver that produced these metrics.
+     *
+     * @return   the simple class name of the solver
+     */
+    public String getSolver()
+    {
+        return solver;
+    }
+
+    /**
+     * Returns the number of nodes whose neighbors the search
+     * enumerated.
+     *
+     * @return   the number of cells visited
+     */
+    public long getCellsVisited()
+    {
+        return cellsVisited.sum();
+    }
+
+    /**
+     * Returns the number of times the search reached a node that had
+     * already been visited, and dropped it.
+     *
+     * @return   the number of duplicate visits
+     */
+    public long getDuplicateVisits()
+    {
+        return duplicateVisits.sum();
+    }
+
+    /**
+     * Returns the number of tasks forked by the search.
+     *
+     * @return   the number of tasks forked
+     */
+    public long getTasksForked()
+    {
+        return tasksForked.sum();
+    }
+
+    /**
+     * Returns the number of forked tasks whose results the search
+     * joined.
+     *
+     * @return   the number of tasks joined
+     */
+    public long getTasksJoined()
+    {
+        return tasksJoined.sum();
+    }
+
+    /**
+     * Returns the number of forked tasks that were cancelled before
+     * they started, because another task had found a goal.
+     *
+     * @return   the number of tasks cancelled
+     */
+    public long getTasksCancelled()
+    {
+        return tasksCancelled.sum();
+    }
+
+    /**
+     * Returns the largest nesting depth of a forked task; the task
+     * that starts the search has depth <code>0</code>.
+     *
+     * @return   the maximum task depth
+     */
+    public long getMaxTaskDepth()
+    {
+        return maxTaskDepth.get();
+    }
+
+    /**
+     * Returns the increase of the steal count of the pool that ran
+     * the search, between its start and its end.
+     *
+     * @return   the number of tasks stolen
+     */
+    public long getSteals()
+    {
+        return steals;
+    }
+
+    /**
+     * Returns the number of failed compare-and-set operations on the
+     * shared visited set, that is, how often two tasks contended for
+     * the same word of the set.
+     *
+     * @return   the number of compare-and-set failures
+     */
+    public long getCasFailures()
+    {
+        return casFailures;
+    }
+
+    /**
+     * Returns the time from the start of the search to the first goal
+     * found by any of its tasks.
+     *
+     * @return   nanoseconds to the first goal; <code>-1</code> if no
+     *           goal was found
+     */
+    public long getFirstGoalNanos()
+    {
+        return firstGoalNanos.get();
+    }
+
+    /**
+     * Returns the time from the start of the search until it returned
+     * its result, including the time taken to join or cancel tasks
+     * after the first goal was found.
+     *
+     * @return   nanoseconds to completion; <code>-1</code> if the
+     *           search has not finished
+     */
+    public long getCompletionNanos()
+    {
+        return completionNanos;
+    }
+
+    /**
+     * Returns the time from the start of the search until the last of
+     * its tasks stopped. A solver that returns as soon as a goal is
+     * found may leave tasks running for a while, so this can be later
+     * than completion; solvers that run no tasks do not record it.
+     *
+     * @return   nanoseconds to shutdown; <code>-1</code> if not
+     *           recorded (yet)
+     */
+    public long getShutdownNanos()
+    {
+        return shutdownNanos.get();
+    }
+
+    /**
+     * Returns all metrics as a JSON object on one line.
+     *
+     * @return   a JSON object with one member per metric
+     */
+    public String toJson()
+    {
+        return "{\"solver\":\"" + solver + "\""
+            + ",\"cellsVisited\":" + getCellsVisited()
+            + ",\"duplicateVisits\":" + getDuplicateVisits()
+            + ",\"tasksForked\":" + getTasksForked()
+            + ",\"tasksJoined\":" + getTasksJoined()
+            + ",\"tasksCancelled\":" + getTasksCancelled()
+            + ",\"maxTaskDepth\":" + getMaxTaskDepth()
+            + ",\"steals\":" + getSteals()
+            + ",\"casFailures\":" + getCasFailures()
+            + ",\"firstGoalNanos\":" + getFirstGoalNanos()
+            + ",\"completionNanos\":" + getCompletionNanos()
+            + ",\"shutdownNanos\":" + getShutdownNanos()
+            + "}";
+    }
+
+    @Override
+    public String toString()
+    {
+        return toJson();
+    }
+}
@@ -0,0 +1,73 @@
+package amazed.solver;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free <code>VisitedSet</code> whose words are spread over
+ * several independent <code>AtomicLongArray</code> stripes.
+ * <p>
+ * Consecutive 64-node words go to different stripes, so threads
+ * exploring nearby regions of a row update different arrays rather
+ * than adjacent words on the same cache line. Claims use the same
+ * compare-and-set as <code>AtomicBitSet</code>; this class exists to
+ * compare the two layouts under contention.
+ */
+class StripedBitSet
+    implements VisitedSet
+{
+    private final AtomicLongArray[] stripes;
+    // compare-and-set operations lost to another thread
+    private final LongAdder casFailures = new LongAdder();
+    private final int mask;
+    private final int shift;
+
+    /**
+     * Creates an empty set for dense indices from <code>0</code> to
+     * <code>size - 1</code>, with a number of stripes proportional to
+     * the available processors.
+     *
+     * @param size   the number of nodes in the maze
+     */
+    StripedBitSet(int size)
+    {
+        int nStripes = Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() - 1) << 1;
+        int nWords = (size + 63) >>> 6;
+        mask = nStripes - 1;
+        shift = Integer.numberOfTrailingZeros(nStripes);
+        stripes = new AtomicLongArray[nStripes];
+        for (int i = 0; i < nStripes; i++)
+            stripes[i] = new AtomicLongArray((nWords >>> shift) + 1);
+    }
+
+    @Override
+    public boolean claim(int index)
+    {
+        int word = index >>> 6;
+        AtomicLongArray stripe = stripes[word & mask];
+        int slot = word >>> shift;
+        long bit = 1L << index;
+        long old;
+        for (;;) {
+            old = stripe.get(slot);
+            if ((old & bit) != 0)
+                return false;
+            if (stripe.compareAndSet(slot, old, old | bit))
+                return true;
+            casFailures.increment();
+        }
+    }
+
+    @Override
+    public boolean contains(int index)
+    {
+        int word = index >>> 6;
+        return (stripes[word & mask].get(word >>> shift) & (1L << index)) != 0;
+    }
+
+    @Override
+    public long casFailures()
+    {
+        return casFailures.sum();
+    }
+}
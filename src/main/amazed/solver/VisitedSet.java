@@ -0,0 +1,38 @@
+package amazed.solver;
+
+/**
+ * <code>VisitedSet</code> is a set of dense node indices that
+ * multiple threads can update concurrently.
+ * <p>
+ * Parallel solvers use it to <em>claim</em> nodes: exactly one of
+ * the threads that try to claim the same node succeeds, and that
+ * thread becomes responsible for exploring it.
+ */
+interface VisitedSet
+{
+    /**
+     * Adds <code>index</code> to the set, if it is not already in it.
+     *
+     * @param index   a dense node index
+     * @return        <code>true</code> if this call added <code>index</code>;
+     *                <code>false</code> if it was already in the set
+     */
+    boolean claim(int index);
+
+    /**
+     * Tests whether <code>index</code> is in the set.
+     *
+     * @param index   a dense node index
+     * @return        <code>true</code> if <code>index</code> has been claimed
+     */
+    boolean contains(int index);
+
+    /**
+     * Returns how many compare-and-set operations of
+     * <code>claim</code> failed because another thread updated the
+     * same word first.
+     *
+     * @return   the number of failed compare-and-set operations so far
+     */
+    long casFailures();
+}
@@ -0,0 +1,327 @@
+package amazed.tools;
+
+import java.io.File;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+import amazed.maze.Maze;
+import amazed.solver.ForkJoinSolver;
+import amazed.solver.ScopedSolver;
+import amazed.solver.SequentialSolver;
+
+
+/**
+ * Headless micro-benchmarks for map loading, neighbor lookup and the
+ * solvers.
+ * <p>
+ * Every benchmark repeatedly runs one operation: a number of warm-up
+ * runs whose results are discarded, then a number of measured runs.
+ * For each benchmark the harness reports throughput, latency
+ * percentiles over the measured runs, bytes allocated per operation
+ * by all threads, and the number and total time of garbage
+ * collections during measurement. No window is opened and animation
+ * is off, so the numbers only include the code being measured.
+ * <p>
+ * <code>ForkJoinSolver</code> is measured with several fixed values
+ * of <code>forkAfter</code> and with the adaptive policy; for each map
+ * the harness also reports the throughput of the adaptive policy
+ * relative to the best fixed value, that of the adaptive policy with
+ * a visited set striped over several arrays relative to a single
+ * array, with the average number of compare-and-set failures on each,
+ * and that of <code>ScopedSolver</code>, which runs a thread per
+ * branch, relative to the adaptive policy. The sequential and adaptive solvers are
+ * also measured over the junction graph of the map, whose size is
+ * reported, relative to the same solvers over every cell; the graph
+ * is built once per map, before the runs, and the time to load a map
+ * and build its graph is reported separately.
+ * <p>
+ * With option <code>-delay</code>, the harness instead measures only
+ * the solvers, on animated mazes where every move pauses for the
+ * given delay as if it waited for I/O; no window is opened. These runs
+ * are bound by the delays rather than by the processors, and show
+ * how well each solver overlaps waiting branches.
+ */
+public class Benchmark
+{
+    private static void printUsageAndExit()
+    {
+        String className = MethodHandles.lookup().lookupClass().getName();
+        System.out.println("Benchmarks map loading, neighbor lookup and solvers.\n"
+                           + "\n"
+                           + "usage: java " + className + " [-delay MS] WARMUP ITERATIONS MAP...\n"
+                           + "\n"
+                           + " MS          milliseconds every move pauses; only solvers are measured\n"
+                           + " WARMUP      number of discarded runs of each benchmark\n"
+                           + " ITERATIONS  number of measured runs of each benchmark\n"
+                           + " MAP         filenames of maps to benchmark on");
+        System.exit(0);
+    }
+
+    // values of forkAfter for which ForkJoinSolver is measured
+    private static final int[] FORK_AFTERS = { 0, 3, 9, 27, 81 };
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static int warmup;
+    private static int iterations;
+    // pause of every move in milliseconds, or 0 for CPU-bound runs
+    private static int delay;
+    // defeats dead-code elimination of benchmark results
+    private static long sink;
+
+    public static void main(String[] args)
+    {
+        int first = 0;
+        if (args.length >= 2 && args[0].equals("-delay")) {
+            try {
+                delay = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                printUsageAndExit();
+            }
+            if (delay <= 0)
+                printUsageAndExit();
+            first = 2;
+        }
+        if (args.length < first + 3)
+            printUsageAndExit();
+        try {
+            warmup = Integer.parseInt(args[first]);
+            iterations = Integer.parseInt(args[first + 1]);
+        } catch (NumberFormatException e) {
+            printUsageAndExit();
+        }
+        if (iterations <= 0)
+            printUsageAndExit();
+        printHeader();
+        for (int i = first + 2; i < args.length; i++) {
+            if (delay > 0)
+                benchmarkDelayed(args[i]);
+            else
+                benchmarkMap(args[i]);
+        }
+        if (sink == 42)
+            System.out.println();
+    }
+
+    private static void benchmarkMap(String map)
+    {
+        double loads = run("load", map, () -> {
+                Maze maze = new Maze(map);
+                sink += maze.size();
+            });
+        System.out.printf("%-24s %-20s %12.1f%n", "load MB/s", shorten(map),
+                          loads * new File(map).length() / 1e6);
+        Maze maze = new Maze(map);
+        maze.setAnimate(false);
+        int size = maze.size();
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++)
+            ids[i] = maze.idOf(i);
+
+        run("neighbors(set)/cell", map, size, () -> {
+                for (int id: ids)
+                    sink += maze.neighbors(id).size();
+            });
+        int[] out = new int[4];
+        run("neighbors(int[])/cell", map, size, () -> {
+                for (int id: ids)
+                    sink += maze.neighbors(id, out);
+            });
+        run("hasGoal/cell", map, size, () -> {
+                for (int id: ids)
+                    if (maze.hasGoal(id))
+                        sink += 1;
+            });
+        double sequential = solve("sequential", map, () -> new SequentialSolver(maze));
+        double best = 0;
+        int bestForkAfter = 0;
+        for (int forkAfter: FORK_AFTERS) {
+            double throughput = solve("parallel-" + forkAfter, map,
+                                      () -> new ForkJoinSolver(maze, forkAfter));
+            if (throughput > best) {
+                best = throughput;
+                bestForkAfter = forkAfter;
+            }
+        }
+        Supplier<RecursiveTask<List<Integer>>> atomic =
+            () -> new ForkJoinSolver(maze, ForkJoinSolver.ADAPTIVE);
+        double adaptive = solve("parallel-adaptive", map, atomic);
+        System.out.printf("%-24s %-20s %12.2f (best fixed: parallel-%d)%n",
+                          "adaptive/best fixed", shorten(map),
+                          best == 0 ? 0 : adaptive / best, bestForkAfter);
+        Supplier<RecursiveTask<List<Integer>>> striped =
+            () -> new ForkJoinSolver(maze, ForkJoinSolver.ADAPTIVE, true);
+        double stripedAdaptive = solve("parallel-striped-adaptive", map, striped);
+        System.out.printf("%-24s %-20s %12.2f (CAS failures/solve: atomic %.1f, striped %.1f)%n",
+                          "striped/atomic", shorten(map),
+                          adaptive == 0 ? 0 : stripedAdaptive / adaptive,
+                          casFailures(atomic), casFailures(striped));
+        double scoped = solve("scoped", map, () -> new ScopedSolver(maze));
+        printScopedRatio(map, scoped, adaptive);
+        benchmarkJunctions(map, maze, sequential, adaptive);
+    }
+
+    // the sequential and adaptive solvers over the junction graph of
+    // `maze', relative to `sequential' and `adaptive' over every cell
+    // of the same maze, whose node identifiers set the search order
+    private static void benchmarkJunctions(String map, Maze maze, double sequential, double adaptive)
+    {
+        run("load+junction graph", map, () -> {
+                sink += new Maze(map).junctionGraph().size();
+            });
+        System.out.printf("%-24s %-20s %s%n", "junction graph", shorten(map), maze.junctionGraph());
+        double junction = solve("junction", map, () -> new SequentialSolver(maze, true));
+        double junctionAdaptive = solve("parallel-junction-adaptive", map,
+                                        () -> new ForkJoinSolver(maze, ForkJoinSolver.ADAPTIVE, false, true));
+        System.out.printf("%-24s %-20s %12.2f%n", "junction/sequential", shorten(map),
+                          sequential == 0 ? 0 : junction / sequential);
+        System.out.printf("%-24s %-20s %12.2f%n", "junction/adaptive", shorten(map),
+                          adaptive == 0 ? 0 : junctionAdaptive / adaptive);
+    }
+
+    // the solvers on an animated maze whose moves pause for `delay'
+    private static void benchmarkDelayed(String map)
+    {
+        Maze maze = new Maze(map);
+        maze.setDelay(delay);
+        String suffix = "@" + delay + "ms";
+        solve("sequential" + suffix, map, () -> new SequentialSolver(maze));
+        double adaptive = solve("parallel-adaptive" + suffix, map,
+                                () -> new ForkJoinSolver(maze, ForkJoinSolver.ADAPTIVE));
+        double scoped = solve("scoped" + suffix, map, () -> new ScopedSolver(maze));
+        printScopedRatio(map, scoped, adaptive);
+    }
+
+    private static void printScopedRatio(String map, double scoped, double adaptive)
+    {
+        System.out.printf("%-24s %-20s %12.2f (%s threads)%n",
+                          "scoped/adaptive", shorten(map),
+                          adaptive == 0 ? 0 : scoped / adaptive,
+                          ScopedSolver.hasVirtualThreads() ? "virtual" : "platform");
+    }
+
+    // average compare-and-set failures on the visited set of
+    // `iterations' solves by fork/join solvers from `solver'
+    private static double casFailures(Supplier<RecursiveTask<List<Integer>>> solver)
+    {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        long failures = 0;
+        for (int i = 0; i < iterations; i++) {
+            RecursiveTask<List<Integer>> task = solver.get();
+            pool.invoke(task);
+            failures += ((ForkJoinSolver) task).getMetrics().getCasFailures();
+        }
+        return (double) failures / iterations;
+    }
+
+    private static double solve(String name, String map,
+                                Supplier<RecursiveTask<List<Integer>>> solver)
+    {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        return run(name, map, () -> {
+                List<Integer> path = pool.invoke(solver.get());
+                sink += path == null ? 0 : path.size();
+            });
+    }
+
+    private static double run(String name, String map, Runnable operation)
+    {
+        return run(name, map, 1, operation);
+    }
+
+    // measure `operation', which performs `units' units of work, and
+    // return its throughput in operations per second
+    private static double run(String name, String map, int units, Runnable operation)
+    {
+        long[] latencies = new long[iterations];
+        long gcCount = gcCount(), gcTime = gcTime();
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < warmup; i++)
+                operation.run();
+            gcCount = gcCount();
+            gcTime = gcTime();
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                long before = System.nanoTime();
+                operation.run();
+                latencies[i] = System.nanoTime() - before;
+            }
+        } catch (RuntimeException | StackOverflowError e) {
+            System.out.printf("%-24s %-20s failed: %s%n", name, shorten(map), e);
+            return 0;
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+        gcCount = gcCount() - gcCount;
+        gcTime = gcTime() - gcTime;
+        Arrays.sort(latencies);
+        double opsPerSecond = iterations * 1e9 / elapsed;
+        System.out.printf("%-24s %-20s %12.1f %10.3f %10.3f %10.3f %10.3f %14.1f %6d %8d%n",
+                          name, shorten(map),
+                          opsPerSecond * units,
+                          percentile(latencies, 50) / 1e3 / units,
+                          percentile(latencies, 90) / 1e3 / units,
+                          percentile(latencies, 99) / 1e3 / units,
+                          latencies[iterations - 1] / 1e3 / units,
+                          (double) allocated / iterations / units,
+                          gcCount, gcTime);
+        return opsPerSecond;
+    }
+
+    private static void printHeader()
+    {
+        System.out.printf("%-24s %-20s %12s %10s %10s %10s %10s %14s %6s %8s%n",
+                          "benchmark", "map", "ops/s", "p50 us", "p90 us", "p99 us",
+                          "max us", "alloc B/op", "gcs", "gc ms");
+    }
+
+    private static long percentile(long[] sorted, int percent)
+    {
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, rank)];
+    }
+
+    private static String shorten(String map)
+    {
+        int slash = map.lastIndexOf('/');
+        return slash < 0 ? map : map.substring(slash + 1);
+    }
+
+    // bytes allocated so far by all live threads
+    private static long allocatedBytes()
+    {
+        long[] ids = THREADS.getAllThreadIds();
+        long total = 0;
+        for (long bytes: THREADS.getThreadAllocatedBytes(ids))
+            if (bytes > 0)
+                total += bytes;
+        return total;
+    }
+
+    private static long gcCount()
+    {
+        long total = 0;
+        for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans())
+            total += Math.max(0, gc.getCollectionCount());
+        return total;
+    }
+
+    private static long gcTime()
+    {
+        long total = 0;
+        for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans())
+            total += Math.max(0, gc.getCollectionTime());
+        return total;
+    }
+}
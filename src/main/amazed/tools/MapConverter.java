@@ -0,0 +1,45 @@
+package amazed.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+
+import amazed.maze.BinaryMap;
+
+
+/**
+ * Converts text map files into the binary map format.
+ * <p>
+ * A binary map stores two bits per cell and is memory-mapped when
+ * opened, so <code>Maze</code> and <code>Amazed</code> load it almost
+ * instantly whatever its size; they recognize binary maps by their
+ * contents, so both kinds of file can be passed wherever a map is
+ * expected.
+ */
+public class MapConverter
+{
+    private static void printUsageAndExit()
+    {
+        String className = MethodHandles.lookup().lookupClass().getName();
+        System.out.println("Converts a text map to a binary map.\n"
+                           + "\n"
+                           + "usage: java " + className + " MAP FILE\n"
+                           + "\n"
+                           + " MAP   filename of the text map to read\n"
+                           + " FILE  filename of the binary map to write");
+        System.exit(0);
+    }
+
+    public static void main(String[] args)
+    throws IOException
+    {
+        if (args.length != 2)
+            printUsageAndExit();
+        long start = System.nanoTime();
+        long written = BinaryMap.convert(args[0], args[1]);
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%s (%d bytes) -> %s (%d bytes) in %.1f ms%n",
+                          args[0], new File(args[0]).length(),
+                          args[1], written, elapsed / 1e6);
+    }
+}
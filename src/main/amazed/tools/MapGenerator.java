@@ -0,0 +1,463 @@
+package amazed.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+
+/**
+ * Generates map files of arbitrary size for scale testing.
+ * <p>
+ * Maps are written in the format read by <code>Board</code>: a
+ * <code>$ rows,cols</code> header followed by one line per row,
+ * without separating spaces. Cells with even row and even column are
+ * <em>rooms</em>, which are always empty; the other cells are walls
+ * between rooms, opened or closed by the chosen topology:
+ * <ul>
+ * <li><code>backtracker</code>: a perfect maze (exactly one path
+ *     between any two rooms) carved by a randomized depth-first
+ *     backtracker; the room grid is held in memory, one byte per room</li>
+ * <li><code>eller</code>: a perfect maze built row by row with
+ *     Eller's algorithm, which only keeps one row of state</li>
+ * <li><code>braided</code>: an Eller maze with extra random openings,
+ *     which add loops</li>
+ * <li><code>rooms</code>: large open rooms separated by walls with one
+ *     door between neighboring rooms</li>
+ * <li><code>corridor</code>: one long corridor that snakes through all
+ *     rooms</li>
+ * </ul>
+ * Hearts are placed on random rooms other than the start. If
+ * unreachable hearts are requested, the last two rows of the map are
+ * a solid row followed by sealed one-cell pockets, some of which hold
+ * a heart.
+ * <p>
+ * Output only depends on the arguments, including the seed. Every
+ * topology except <code>backtracker</code> writes the map one row at
+ * a time, in memory proportional to the number of columns, so maps of
+ * many gigabytes can be streamed to disk.
+ */
+public class MapGenerator
+{
+    private static void printUsageAndExit()
+    {
+        String className = MethodHandles.lookup().lookupClass().getName();
+        System.out.println("Generates a map file.\n"
+                           + "\n"
+                           + "usage: java " + className
+                           + " TOPOLOGY ROWS COLS SEED HEARTS UNREACHABLE FILE\n"
+                           + "\n"
+                           + " TOPOLOGY     'backtracker', 'eller', 'braided', 'rooms', or 'corridor'\n"
+                           + " ROWS COLS    size of the map in cells\n"
+                           + " SEED         seed of the random generator\n"
+                           + " HEARTS       number of hearts in the maze\n"
+                           + " UNREACHABLE  number of additional hearts sealed off from the maze\n"
+                           + " FILE         name of the map file to write");
+        System.exit(0);
+    }
+
+    private static final byte EMPTY = '.';
+    private static final byte SOLID = '#';
+    private static final byte HEART = 'v';
+
+    // probability that a closed wall is opened in a braided maze
+    private static final double BRAID = 0.15;
+    // width and height, in rooms, of the open areas of a rooms map
+    private static final int ROOM_SIZE = 8;
+
+    public static void main(String[] args)
+    throws IOException
+    {
+        if (args.length != 7)
+            printUsageAndExit();
+        String topology = args[0];
+        int rows = 0, cols = 0, hearts = 0, unreachable = 0;
+        long seed = 0;
+        try {
+            rows = Integer.parseInt(args[1]);
+            cols = Integer.parseInt(args[2]);
+            seed = Long.parseLong(args[3]);
+            hearts = Integer.parseInt(args[4]);
+            unreachable = Integer.parseInt(args[5]);
+        } catch (NumberFormatException e) {
+            printUsageAndExit();
+        }
+        int mazeRows = unreachable > 0 ? rows - 2 : rows;
+        if (mazeRows < 1 || cols < 1 || hearts < 0 || unreachable < 0
+                || unreachable > (cols + 1) / 2)
+            printUsageAndExit();
+        long start = System.nanoTime();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[6]), 1 << 20)) {
+            generate(topology, rows, cols, mazeRows, seed, hearts, unreachable, out);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Wrote " + rows + "x" + cols + " " + topology + " map to "
+                           + args[6] + " in " + elapsed + " ms");
+    }
+
+    /**
+     * Writes to <code>out</code> a map of <code>rows</code> rows and
+     * <code>cols</code> columns, whose first <code>mazeRows</code>
+     * rows are a maze of the given topology.
+     */
+    static void generate(String topology, int rows, int cols, int mazeRows, long seed,
+                         int hearts, int unreachable, OutputStream out)
+    throws IOException
+    {
+        SplittableRandom random = new SplittableRandom(seed);
+        int roomRows = (mazeRows + 1) / 2, roomCols = (cols + 1) / 2;
+        Rows maze = newTopology(topology, roomRows, roomCols, random.split());
+        long[] heartRooms = sample(random, (long) roomRows * roomCols, hearts, 1);
+        long[] pockets = sample(random, (cols + 1) / 2, unreachable, 0);
+
+        out.write(("$ " + rows + "," + cols + "\n").getBytes(StandardCharsets.US_ASCII));
+        byte[] line = new byte[cols + 1];
+        line[cols] = '\n';
+        int nextHeart = 0;
+        for (int row = 0; row < mazeRows; row++) {
+            maze.next(line, cols);
+            // the last room row of a map with an even number of rows is a wall row
+            if (row % 2 == 1 && row == mazeRows - 1)
+                Arrays.fill(line, 0, cols, SOLID);
+            while (nextHeart < heartRooms.length
+                   && 2 * (heartRooms[nextHeart] / roomCols) == row) {
+                line[(int) (2 * (heartRooms[nextHeart] % roomCols))] = HEART;
+                nextHeart += 1;
+            }
+            out.write(line);
+        }
+        if (unreachable > 0) {
+            Arrays.fill(line, 0, cols, SOLID);
+            out.write(line);
+            for (int col = 0; col < cols; col++)
+                line[col] = col % 2 == 0 ? EMPTY : SOLID;
+            for (long pocket: pockets)
+                line[(int) (2 * pocket)] = HEART;
+            out.write(line);
+        }
+    }
+
+    // `count' distinct values from `from' to `bound' - 1, in increasing order
+    private static long[] sample(SplittableRandom random, long bound, int count, long from)
+    {
+        if (count > bound - from)
+            throw new IllegalArgumentException("cannot place " + count + " hearts in "
+                                               + (bound - from) + " rooms");
+        long[] values = new long[count];
+        int n = 0;
+        while (n < count) {
+            while (n < count)
+                values[n++] = random.nextLong(from, bound);
+            Arrays.sort(values);
+            n = 0;
+            for (int i = 0; i < count; i++)
+                if (i == 0 || values[i] != values[i - 1])
+                    values[n++] = values[i];
+        }
+        return values;
+    }
+
+    private static Rows newTopology(String topology, int roomRows, int roomCols,
+                                    SplittableRandom random)
+    {
+        switch (topology) {
+        case "backtracker":
+            return new Backtracker(roomRows, roomCols, random);
+        case "eller":
+            return new Eller(roomRows, roomCols, random, 0.0);
+        case "braided":
+            return new Eller(roomRows, roomCols, random, BRAID);
+        case "rooms":
+            return new OpenRooms(roomRows, roomCols, random.nextLong());
+        case "corridor":
+            return new Corridor(roomRows, roomCols);
+        default:
+            throw new IllegalArgumentException("unknown topology " + topology);
+        }
+    }
+
+    /**
+     * A source of map rows, produced in order from the top row.
+     */
+    private interface Rows
+    {
+        // fill the first `cols' elements of `line' with the next row
+        void next(byte[] line, int cols);
+    }
+
+    // rooms at even positions; east and south walls from the given flags
+    private static void roomLine(byte[] line, int cols, boolean[] east)
+    {
+        for (int col = 0; col < cols; col++)
+            line[col] = col % 2 == 0 || east[col / 2] ? EMPTY : SOLID;
+    }
+
+    private static void wallLine(byte[] line, int cols, boolean[] south)
+    {
+        for (int col = 0; col < cols; col++)
+            line[col] = col % 2 == 0 && south[col / 2] ? EMPTY : SOLID;
+    }
+
+    private static final class Backtracker
+        implements Rows
+    {
+        private static final byte VISITED = 1, EAST = 2, SOUTH = 4;
+
+        private final int roomCols;
+        private final byte[] rooms;
+        private final boolean[] open;
+        private int row;
+
+        Backtracker(int roomRows, int roomCols, SplittableRandom random)
+        {
+            this.roomCols = roomCols;
+            long size = (long) roomRows * roomCols;
+            if (size > Integer.MAX_VALUE - 8)
+                throw new IllegalArgumentException("map too large for backtracker; use eller");
+            rooms = new byte[(int) size];
+            open = new boolean[roomCols];
+            int[] stack = new int[1024];
+            int top = 0;
+            int[] candidates = new int[4];
+            stack[top++] = 0;
+            rooms[0] = VISITED;
+            while (top > 0) {
+                int room = stack[top - 1];
+                int r = room / roomCols, c = room % roomCols;
+                int n = 0;
+                if (r > 0 && (rooms[room - roomCols] & VISITED) == 0)
+                    candidates[n++] = room - roomCols;
+                if (r < roomRows - 1 && (rooms[room + roomCols] & VISITED) == 0)
+                    candidates[n++] = room + roomCols;
+                if (c > 0 && (rooms[room - 1] & VISITED) == 0)
+                    candidates[n++] = room - 1;
+                if (c < roomCols - 1 && (rooms[room + 1] & VISITED) == 0)
+                    candidates[n++] = room + 1;
+                if (n == 0) {
+                    top -= 1;
+                    continue;
+                }
+                int next = candidates[random.nextInt(n)];
+                if (next == room - roomCols)
+                    rooms[next] |= SOUTH;
+                else if (next == room + roomCols)
+                    rooms[room] |= SOUTH;
+                else if (next == room - 1)
+                    rooms[next] |= EAST;
+                else
+                    rooms[room] |= EAST;
+                rooms[next] |= VISITED;
+                if (top == stack.length)
+                    stack = Arrays.copyOf(stack, 2 * stack.length);
+                stack[top++] = next;
+            }
+        }
+
+        @Override
+        public void next(byte[] line, int cols)
+        {
+            int base = (row / 2) * roomCols;
+            byte flag = row % 2 == 0 ? EAST : SOUTH;
+            for (int c = 0; c < roomCols; c++)
+                open[c] = (rooms[base + c] & flag) != 0;
+            if (row % 2 == 0)
+                roomLine(line, cols, open);
+            else
+                wallLine(line, cols, open);
+            row += 1;
+        }
+    }
+
+    private static final class Eller
+        implements Rows
+    {
+        private final int roomRows, roomCols;
+        private final SplittableRandom random;
+        private final double braid;
+
+        // set label of each room of the current row
+        private final int[] set;
+        // union-find over labels, reset every row
+        private final int[] parent;
+        private final boolean[] east, south;
+        private final boolean[] used, hasSouth;
+        private final int[] lastInSet;
+        private int row;
+
+        Eller(int roomRows, int roomCols, SplittableRandom random, double braid)
+        {
+            this.roomRows = roomRows;
+            this.roomCols = roomCols;
+            this.random = random;
+            this.braid = braid;
+            set = new int[roomCols];
+            parent = new int[roomCols];
+            east = new boolean[roomCols];
+            south = new boolean[roomCols];
+            used = new boolean[roomCols];
+            hasSouth = new boolean[roomCols];
+            lastInSet = new int[roomCols];
+            for (int c = 0; c < roomCols; c++)
+                set[c] = c;
+        }
+
+        private int find(int label)
+        {
+            while (parent[label] != label) {
+                parent[label] = parent[parent[label]];
+                label = parent[label];
+            }
+            return label;
+        }
+
+        @Override
+        public void next(byte[] line, int cols)
+        {
+            if (row % 2 == 0)
+                joinRow();
+            else
+                joinDown();
+            if (row % 2 == 0)
+                roomLine(line, cols, east);
+            else
+                wallLine(line, cols, south);
+            row += 1;
+        }
+
+        // decide the east walls of room row `row / 2'
+        private void joinRow()
+        {
+            boolean last = row / 2 == roomRows - 1;
+            for (int c = 0; c < roomCols; c++)
+                parent[c] = c;
+            for (int c = 0; c < roomCols - 1; c++) {
+                int a = find(set[c]), b = find(set[c + 1]);
+                east[c] = false;
+                if (a != b && (last || random.nextBoolean())) {
+                    parent[b] = a;
+                    east[c] = true;
+                } else if (a == b && braid > 0 && random.nextDouble() < braid)
+                    east[c] = true;
+            }
+            east[roomCols - 1] = false;
+            for (int c = 0; c < roomCols; c++)
+                set[c] = find(set[c]);
+        }
+
+        // decide the south walls of room row `row / 2', and label the next row
+        private void joinDown()
+        {
+            Arrays.fill(hasSouth, false);
+            for (int c = 0; c < roomCols; c++) {
+                south[c] = random.nextBoolean();
+                hasSouth[set[c]] |= south[c];
+                lastInSet[set[c]] = c;
+            }
+            // every set continues down at least once
+            for (int c = 0; c < roomCols; c++)
+                if (!hasSouth[set[c]]) {
+                    south[lastInSet[set[c]]] = true;
+                    hasSouth[set[c]] = true;
+                }
+            Arrays.fill(used, false);
+            for (int c = 0; c < roomCols; c++)
+                if (south[c])
+                    used[set[c]] = true;
+            int fresh = 0;
+            for (int c = 0; c < roomCols; c++)
+                if (!south[c]) {
+                    while (used[fresh])
+                        fresh += 1;
+                    used[fresh] = true;
+                    set[c] = fresh;
+                }
+        }
+    }
+
+    private static final class OpenRooms
+        implements Rows
+    {
+        // walls repeat every SPAN cells
+        private static final int SPAN = 2 * ROOM_SIZE;
+
+        private final int roomRows, roomCols;
+        private final long seed;
+        private int row;
+
+        OpenRooms(int roomRows, int roomCols, long seed)
+        {
+            this.roomRows = roomRows;
+            this.roomCols = roomCols;
+            this.seed = seed;
+        }
+
+        // offset of the door in the wall below (direction 0) or right
+        // (direction 1) of block (blockRow, blockCol); the door always
+        // lies within the map, even if the block is cut by its border
+        private int door(int blockRow, int blockCol, int direction)
+        {
+            int rooms = direction == 0
+                ? Math.min(ROOM_SIZE, roomCols - blockCol * ROOM_SIZE)
+                : Math.min(ROOM_SIZE, roomRows - blockRow * ROOM_SIZE);
+            long h = seed ^ (blockRow * 0x9E3779B97F4A7C15L) ^ (blockCol * 0xC2B2AE3D27D4EB4FL)
+                ^ (direction * 0x165667B19E3779F9L);
+            h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+            h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+            h ^= h >>> 33;
+            return (int) Long.remainderUnsigned(h, rooms) * 2;
+        }
+
+        @Override
+        public void next(byte[] line, int cols)
+        {
+            boolean wallRow = row % SPAN == SPAN - 1;
+            for (int col = 0; col < cols; col++) {
+                boolean wallCol = col % SPAN == SPAN - 1;
+                byte cell = EMPTY;
+                if (wallRow && wallCol)
+                    cell = SOLID;
+                else if (wallRow)
+                    cell = col % SPAN == door(row / SPAN, col / SPAN, 0) ? EMPTY : SOLID;
+                else if (wallCol)
+                    cell = row % SPAN == door(row / SPAN, col / SPAN, 1) ? EMPTY : SOLID;
+                line[col] = cell;
+            }
+            row += 1;
+        }
+    }
+
+    private static final class Corridor
+        implements Rows
+    {
+        private final boolean[] east, south;
+        private int row;
+
+        Corridor(int roomRows, int roomCols)
+        {
+            east = new boolean[roomCols];
+            south = new boolean[roomCols];
+            Arrays.fill(east, 0, roomCols - 1, true);
+        }
+
+        @Override
+        public void next(byte[] line, int cols)
+        {
+            if (row % 2 == 0)
+                roomLine(line, cols, east);
+            else {
+                // turn at the right end after even room rows, at the left after odd
+                Arrays.fill(south, false);
+                south[(row / 2) % 2 == 0 ? south.length - 1 : 0] = true;
+                wallLine(line, cols, south);
+            }
+            row += 1;
+        }
+    }
+}
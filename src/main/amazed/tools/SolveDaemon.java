@@ -0,0 +1,387 @@
+package amazed.tools;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import amazed.maze.Amazed;
+import amazed.maze.Maze;
+import amazed.maze.MazeCache;
+
+
+/**
+ * Long-running solve server: keeps loaded mazes in the shared
+ * <code>MazeCache</code> and answers
+ * solve requests over a local TCP socket, so that repeated solves pay
+ * neither JVM startup nor map parsing, and run on warm code.
+ * <p>
+ * A request is one line of ASCII text with three to five fields
+ * separated by spaces:
+ * <pre>
+ *   TAG MAP SOLVER [START [GOALS]]
+ * </pre>
+ * where TAG is any word, echoed in the response; MAP is the filename
+ * of a map, read when it is not cached; SOLVER is a solver name as accepted
+ * by <code>amazed.Main</code>, except <code>all</code>; START is the
+ * start cell as <code>ROW,COL</code>; and GOALS are goal cells as
+ * <code>ROW,COL;ROW,COL;...</code>. A <code>-</code> for START or
+ * GOALS, or leaving them out, selects the top-left cell and the
+ * hearts of the map.
+ * <p>
+ * Every request gets one response line:
+ * <pre>
+ *   TAG OK LOAD_US SOLVE_US LENGTH ROW,COL MOVES
+ *   TAG NONE LOAD_US SOLVE_US
+ *   TAG ERR MESSAGE
+ * </pre>
+ * where LOAD_US and SOLVE_US are the microseconds spent loading the
+ * map (almost 0 if it was cached) and solving, LENGTH is the number
+ * of cells on the path, ROW,COL is its first cell, and MOVES has one
+ * letter <code>N</code>, <code>E</code>, <code>S</code> or
+ * <code>W</code> per step; NONE means that no goal is reachable.
+ * <p>
+ * The request <code>TAG STATS</code> gets the counters of the cache:
+ * <pre>
+ *   TAG STATS HITS MISSES EVICTIONS ENTRIES WEIGHT
+ * </pre>
+ * <p>
+ * Clients may pipeline requests: they may send many before reading
+ * any response. Requests are solved concurrently on a fork/join pool,
+ * and responses are sent in the order of the requests of each
+ * connection. A connection with <code>MAX_PENDING</code> unanswered
+ * requests is not read from until some are answered. A client may
+ * shut down its output after its last request: the responses are
+ * still sent, and then the connection is closed. One thread serves
+ * all connections with a non-blocking selector.
+ */
+public class SolveDaemon
+{
+    // longest request line, in bytes
+    private static final int MAX_LINE = 1 << 16;
+    // unanswered requests after which a connection is not read
+    private static final int MAX_PENDING = 256;
+
+    private static void printUsageAndExit()
+    {
+        String className = MethodHandles.lookup().lookupClass().getName();
+        System.out.println("Serves solve requests over a local socket.\n"
+                           + "\n"
+                           + "usage: java " + className + " PORT [THREADS]\n"
+                           + "\n"
+                           + " PORT     port on the loopback interface to listen on\n"
+                           + " THREADS  parallelism of the solving pool (default: processors)\n"
+                           + "\n"
+                           + "requests:  TAG MAP SOLVER [ROW,COL|- [ROW,COL;...|-]]\n"
+                           + "           TAG STATS\n"
+                           + "responses: TAG OK LOAD_US SOLVE_US LENGTH ROW,COL MOVES\n"
+                           + "           TAG NONE LOAD_US SOLVE_US\n"
+                           + "           TAG STATS HITS MISSES EVICTIONS ENTRIES WEIGHT\n"
+                           + "           TAG ERR MESSAGE");
+        System.exit(0);
+    }
+
+    public static void main(String[] args)
+    throws IOException
+    {
+        if (args.length < 1 || args.length > 2)
+            printUsageAndExit();
+        int port = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            port = Integer.parseInt(args[0]);
+            if (args.length == 2)
+                threads = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            printUsageAndExit();
+        }
+        if (threads <= 0)
+            printUsageAndExit();
+        new SolveDaemon(port, threads).serve();
+    }
+
+    private final ForkJoinPool pool;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final MazeCache mazes = MazeCache.shared();
+    // connections with newly completed responses, to be flushed by the selector thread
+    private final Queue<Connection> completed = new ConcurrentLinkedQueue<>();
+
+    private SolveDaemon(int port, int threads)
+    throws IOException
+    {
+        pool = new ForkJoinPool(threads);
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    // one client connection; only accessed by the selector thread
+    private final class Connection
+    {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        // bytes of responses not written yet, in write mode
+        ByteBuffer out = ByteBuffer.allocate(4096);
+        // responses of unanswered requests, in request order
+        final ArrayDeque<CompletableFuture<String>> pending = new ArrayDeque<>();
+        // set when the client has closed its side: no more requests
+        // are read, and the connection is closed once all responses
+        // are written
+        boolean ended;
+
+        Connection(SocketChannel channel)
+        throws IOException
+        {
+            this.channel = channel;
+            channel.configureBlocking(false);
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+    }
+
+    private void serve()
+    throws IOException
+    {
+        System.out.println("Listening on " + server.getLocalAddress());
+        for (;;) {
+            selector.select();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                try {
+                    if (key.isAcceptable())
+                        accept();
+                    else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable())
+                            read(connection);
+                        if (key.isValid() && key.isWritable())
+                            write(connection);
+                    }
+                } catch (IOException e) {
+                    close(key);
+                }
+            }
+            for (Connection connection = completed.poll(); connection != null;
+                 connection = completed.poll()) {
+                try {
+                    flush(connection);
+                } catch (IOException e) {
+                    close(connection.key);
+                }
+            }
+        }
+    }
+
+    private void accept()
+    throws IOException
+    {
+        SocketChannel channel = server.accept();
+        if (channel != null)
+            new Connection(channel);
+    }
+
+    private void close(SelectionKey key)
+    {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // nothing left to do with the connection
+        }
+    }
+
+    private void read(Connection connection)
+    throws IOException
+    {
+        if (connection.channel.read(connection.in) < 0) {
+            connection.ended = true;
+            write(connection);
+            return;
+        }
+        ByteBuffer in = connection.in;
+        in.flip();
+        int lineStart = 0;
+        for (int i = 0; i < in.limit(); i++) {
+            if (in.get(i) != '\n')
+                continue;
+            String line = new String(in.array(), lineStart, i - lineStart, StandardCharsets.US_ASCII);
+            lineStart = i + 1;
+            if (!line.isBlank())
+                submit(connection, line.strip());
+        }
+        in.position(lineStart);
+        in.compact();
+        if (!in.hasRemaining()) {
+            // a line longer than the buffer: the client is not speaking the protocol
+            close(connection.key);
+            return;
+        }
+        updateInterest(connection);
+    }
+
+    private void submit(Connection connection, String line)
+    {
+        CompletableFuture<String> response =
+            CompletableFuture.supplyAsync(() -> respond(line), pool);
+        connection.pending.add(response);
+        response.whenComplete((result, failure) -> {
+                completed.add(connection);
+                selector.wakeup();
+            });
+    }
+
+    // moves the completed responses at the head of the connection's
+    // queue to its output buffer, and writes as much as possible
+    private void flush(Connection connection)
+    throws IOException
+    {
+        if (!connection.key.isValid())
+            return;
+        while (!connection.pending.isEmpty() && connection.pending.peek().isDone()) {
+            String response = connection.pending.poll().getNow(null);
+            byte[] bytes = (response + "\n").getBytes(StandardCharsets.US_ASCII);
+            if (connection.out.remaining() < bytes.length) {
+                ByteBuffer out = ByteBuffer.allocate(2 * (connection.out.position() + bytes.length));
+                connection.out.flip();
+                out.put(connection.out);
+                connection.out = out;
+            }
+            connection.out.put(bytes);
+        }
+        write(connection);
+    }
+
+    private void write(Connection connection)
+    throws IOException
+    {
+        ByteBuffer out = connection.out;
+        out.flip();
+        connection.channel.write(out);
+        out.compact();
+        if (connection.ended && connection.pending.isEmpty() && out.position() == 0) {
+            close(connection.key);
+            return;
+        }
+        updateInterest(connection);
+    }
+
+    private void updateInterest(Connection connection)
+    {
+        if (!connection.key.isValid())
+            return;
+        int ops = 0;
+        if (!connection.ended && connection.pending.size() < MAX_PENDING)
+            ops |= SelectionKey.OP_READ;
+        if (connection.out.position() > 0)
+            ops |= SelectionKey.OP_WRITE;
+        connection.key.interestOps(ops);
+    }
+
+    // the response line to request `line'; runs in the pool
+    private String respond(String line)
+    {
+        String[] fields = line.split("\\s+");
+        String tag = fields[0];
+        if (fields.length == 2 && fields[1].equals("STATS"))
+            return tag + " STATS " + mazes.getHits() + " " + mazes.getMisses() + " "
+                + mazes.getEvictions() + " " + mazes.size() + " " + mazes.getWeight();
+        if (fields.length < 3 || fields.length > 5)
+            return tag + " ERR expected TAG MAP SOLVER [START [GOALS]]";
+        try {
+            long start = System.nanoTime();
+            Maze maze = mazes.get(fields[1]);
+            maze.setAnimate(false);
+            long load = System.nanoTime() - start;
+            Maze searched = withEndpoints(maze, fields);
+            RecursiveTask<List<Integer>> solver = Amazed.newSolver(searched, fields[2]);
+            start = System.nanoTime();
+            List<Integer> path = searched.isGoalReachable() ? solver.invoke() : null;
+            long solve = System.nanoTime() - start;
+            String timings = " " + load / 1000 + " " + solve / 1000;
+            if (path == null)
+                return tag + " NONE" + timings;
+            return tag + " OK" + timings + " " + encode(searched, path);
+        } catch (IOException e) {
+            return tag + " ERR cannot read map " + fields[1];
+        } catch (RuntimeException e) {
+            return tag + " ERR " + e.getMessage();
+        } catch (Throwable e) {
+            // an error in one solve, such as a stack overflow, fails
+            // its request only: the response future must not fail, or
+            // the selector thread would throw when it sends the response
+            return tag + " ERR " + e;
+        }
+    }
+
+    // `maze' with the start and goals in fields 3 and 4 of a request
+    private static Maze withEndpoints(Maze maze, String[] fields)
+    {
+        boolean start = fields.length > 3 && !fields[3].equals("-");
+        boolean goals = fields.length > 4 && !fields[4].equals("-");
+        if (!start && !goals)
+            return maze;
+        int startIndex = start ? cell(maze, fields[3]) : maze.indexOf(maze.start());
+        int[] goalIndices = maze.goalIndices();
+        if (goals) {
+            String[] cells = fields[4].split(";");
+            goalIndices = new int[cells.length];
+            for (int i = 0; i < cells.length; i++)
+                goalIndices[i] = cell(maze, cells[i]);
+        }
+        return maze.withEndpoints(startIndex, goalIndices);
+    }
+
+    // dense index of the cell `ROW,COL'
+    private static int cell(Maze maze, String rowCol)
+    {
+        int comma = rowCol.indexOf(',');
+        int last = maze.size() - 1;
+        try {
+            int row = Integer.parseInt(rowCol.substring(0, comma));
+            int col = Integer.parseInt(rowCol.substring(comma + 1));
+            int cols = maze.colOf(last) + 1;
+            if (row < 0 || row > maze.rowOf(last) || col < 0 || col >= cols)
+                throw new IllegalArgumentException("no cell " + rowCol);
+            return row * cols + col;
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("malformed cell " + rowCol);
+        }
+    }
+
+    // LENGTH ROW,COL MOVES of `path'
+    private static String encode(Maze maze, List<Integer> path)
+    {
+        StringBuilder result = new StringBuilder(path.size() + 24);
+        int first = maze.indexOf(path.get(0));
+        result.append(path.size()).append(' ')
+            .append(maze.rowOf(first)).append(',').append(maze.colOf(first)).append(' ');
+        int previous = first;
+        for (int id: path.subList(1, path.size())) {
+            int index = maze.indexOf(id);
+            int rows = maze.rowOf(index) - maze.rowOf(previous);
+            int cols = maze.colOf(index) - maze.colOf(previous);
+            result.append(rows < 0 ? 'N' : rows > 0 ? 'S' : cols > 0 ? 'E' : 'W');
+            previous = index;
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package amazed.tools;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import amazed.maze.Maze;
+import amazed.solver.ForkJoinSolver;
+
+
+/**
+ * Runs many <code>ForkJoinSolver</code> searches at the same time on
+ * one <code>ForkJoinPool</code>, over several maps, and checks that
+ * every search returns a valid path. A search that sees state left
+ * over by another one (visited nodes, or a finished flag) returns
+ * <code>null</code> or a broken path, and is reported as a failure,
+ * as is a search that throws, or that returns <code>null</code> on a
+ * maze where a goal is reachable from the start.
+ */
+public class StressSolve
+{
+    private static void printUsageAndExit()
+    {
+        String className = MethodHandles.lookup().lookupClass().getName();
+        System.out.println("Stress test: concurrent parallel solves on one pool.\n"
+                           + "\n"
+                           + "usage: java " + className + " SOLVES FORK_AFTER MAP...\n"
+                           + "\n"
+                           + " SOLVES      number of searches submitted concurrently\n"
+                           + " FORK_AFTER  steps after which a parallel task is forked\n"
+                           + " MAP         filenames of maps; searches alternate between them");
+        System.exit(0);
+    }
+
+    public static void main(String[] args)
+    {
+        if (args.length < 3)
+            printUsageAndExit();
+        int solves = 0, forkAfter = 0;
+        try {
+            solves = Integer.parseInt(args[0]);
+            forkAfter = Integer.parseInt(args[1]);
+        } catch (NumberFormatException e) {
+            printUsageAndExit();
+        }
+        List<Maze> mazes = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            Maze maze = new Maze(args[i]);
+            maze.setAnimate(false);
+            mazes.add(maze);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool();
+        List<ForkJoinTask<List<Integer>>> tasks = new ArrayList<>(solves);
+        long start = System.nanoTime();
+        for (int i = 0; i < solves; i++)
+            tasks.add(pool.submit(new ForkJoinSolver(mazes.get(i % mazes.size()), forkAfter)));
+        int failures = 0;
+        for (int i = 0; i < solves; i++) {
+            Maze maze = mazes.get(i % mazes.size());
+            String failure = null;
+            try {
+                List<Integer> path = tasks.get(i).join();
+                if (path == null ? maze.isGoalReachable() : !maze.isValidPath(path))
+                    failure = "no valid path";
+            } catch (RuntimeException | Error e) {
+                failure = e.toString();
+            }
+            if (failure != null) {
+                failures += 1;
+                System.out.println("Solve " + i + " on " + args[2 + i % mazes.size()]
+                                   + ": " + failure);
+            }
+        }
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        pool.shutdown();
+        System.out.println(solves + " concurrent solves, " + failures + " failures, "
+                           + elapsed + " ms");
+        if (failures > 0)
+            System.exit(1);
+    }
+}
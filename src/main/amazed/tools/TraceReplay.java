@@ -0,0 +1,102 @@
+package amazed.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import javax.imageio.ImageIO;
+
+import amazed.maze.Maze;
+import amazed.maze.Playback;
+import amazed.maze.Trace;
+
+
+/**
+ * Replays a trace file recorded by <code>Maze.record</code> (for
+ * example with the TRACE argument of <code>amazed.Main</code>) on the
+ * maze of the map it was recorded on.
+ * <p>
+ * With a period, the trace is replayed in a window, one move per
+ * period. With an image file instead, the trace is replayed without a
+ * window and without pauses, and the final positions of all players
+ * are drawn into a PNG image of at most <code>IMAGE_CELLS</code> rows
+ * and columns from the top-left corner of the maze. Either way, a
+ * summary of the trace is printed.
+ */
+public class TraceReplay
+{
+    // largest number of rows and columns drawn into an image
+    private static final int IMAGE_CELLS = 256;
+
+    private static void printUsageAndExit()
+    {
+        String className = MethodHandles.lookup().lookupClass().getName();
+        System.out.println("Replays a trace file on its maze.\n"
+                           + "\n"
+                           + "usage: java " + className + " MAP TRACE [PERIOD | IMAGE]\n"
+                           + "\n"
+                           + " MAP     filename of the map the trace was recorded on\n"
+                           + " TRACE   filename of the trace file\n"
+                           + " PERIOD  time in milliseconds between replayed moves (default 100)\n"
+                           + " IMAGE   filename of a PNG image of the final positions,\n"
+                           + "         replayed without a window");
+        System.exit(0);
+    }
+
+    public static void main(String[] args)
+    throws IOException, InterruptedException
+    {
+        if (args.length < 2 || args.length > 3)
+            printUsageAndExit();
+        String image = null;
+        int period = 100;
+        if (args.length == 3) {
+            if (args[2].endsWith(".png"))
+                image = args[2];
+            else {
+                try {
+                    period = Integer.parseInt(args[2]);
+                } catch (NumberFormatException e) {
+                    printUsageAndExit();
+                }
+            }
+        }
+
+        Maze maze = new Maze(args[0]);
+        Trace trace = maze.loadTrace(args[1]);
+        printSummary(trace);
+        maze.setDelay(Math.max(1, period));
+        Playback playback = maze.newPlayback(trace);
+        if (image == null) {
+            maze.display();
+            playback.start();
+            playback.awaitEnd();
+            System.out.println("Replay finished");
+        } else {
+            playback.start();
+            playback.seek(trace.size());
+            playback.awaitEnd();
+            playback.stop();
+            // the last cell is in the last row and column
+            int last = maze.size() - 1;
+            int rows = Math.min(IMAGE_CELLS, maze.rowOf(last) + 1);
+            int cols = Math.min(IMAGE_CELLS, maze.colOf(last) + 1);
+            ImageIO.write(maze.render(0, 0, rows, cols), "png", new File(image));
+            System.out.println("Wrote " + image);
+        }
+    }
+
+    private static void printSummary(Trace trace)
+    {
+        int size = trace.size();
+        int spawns = 0, maxPlayer = -1;
+        for (int i = 0; i < size; i++) {
+            if (trace.isSpawnAt(i))
+                spawns += 1;
+            maxPlayer = Math.max(maxPlayer, trace.playerAt(i));
+        }
+        double duration = size == 0 ? 0 : (trace.timeAt(size - 1) - trace.timeAt(0)) / 1e6;
+        System.out.printf("%d events: %d players created, %d moves, over %.1f ms; "
+                          + "highest player id %d%n",
+                          size, spawns, size - spawns, duration, maxPlayer);
+    }
+}